@@ -8,6 +8,7 @@ require 'data_objects/transaction'
 require 'data_objects/command'
 require 'data_objects/result'
 require 'data_objects/reader'
+require 'data_objects/column'
 require 'data_objects/quoting'
 require 'data_objects/error'
 require 'data_objects/error/sql_error'
@@ -16,3 +17,4 @@ require 'data_objects/error/data_error'
 require 'data_objects/error/integrity_error'
 require 'data_objects/error/syntax_error'
 require 'data_objects/error/transaction_error'
+require 'data_objects/error/result_too_large_error'
@@ -0,0 +1,39 @@
+module DataObjects
+  # Abstract class for a column of a query result, as returned by
+  # Command#execute_columnar
+  class Column
+    include Enumerable
+
+    # Return the field name of the column
+    def name
+      raise NotImplementedError.new
+    end
+
+    # Return the number of values in the column
+    def size
+      raise NotImplementedError.new
+    end
+
+    def length
+      size
+    end
+
+    # Return the value of the row at +index+, or nil if there is no such row.
+    # Negative indices count back from the last row, as with Array#[]
+    def [](index)
+      raise NotImplementedError.new
+    end
+
+    # Yield the value of each row
+    def each
+      size.times { |i| yield self[i] }
+      self
+    end
+
+    # Return the sum of the column's non-nil values
+    def sum
+      inject(0) { |sum, value| value.nil? ? sum : sum + value }
+    end
+
+  end
+end
@@ -16,11 +16,32 @@ module DataObjects
       raise NotImplementedError.new
     end
 
+    # Execute this command once for each row of bind values, sending the rows
+    # to the database in batches of +batch_size+. Returns an Array with a
+    # DataObjects::Result for each row. The insert_id of the results is nil
+    # when the driver can't tell the generated key of each row of a batch
+    def execute_batch(rows, batch_size = nil)
+      raise NotImplementedError.new
+    end
+
     # Execute this command and return a DataObjects::Reader for a dataset
     def execute_reader(*args)
       raise NotImplementedError.new
     end
 
+    # Execute this command and return its whole dataset as an Array with a
+    # DataObjects::Column for each field
+    def execute_columnar(*args)
+      raise NotImplementedError.new
+    end
+
+    # Execute this command and write its dataset to +io+ as CSV or JSON Lines.
+    # +format+ is :csv (the default) or :jsonl, or a Hash with a :format key.
+    # Returns the number of rows written
+    def export(io, format = :csv, *args)
+      raise NotImplementedError.new
+    end
+
     # Assign an array of types for the columns to be returned by this command
     def set_types(column_types)
       raise NotImplementedError.new
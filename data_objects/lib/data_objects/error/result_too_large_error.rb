@@ -0,0 +1,4 @@
+module DataObjects
+  class ResultTooLargeError < Error
+  end
+end
@@ -27,5 +27,32 @@ module DataObjects
       raise NotImplementedError.new
     end
 
+    # Read up to +count+ rows and return an Array of their values Arrays,
+    # which is empty once there are no further rows. Drivers may override
+    # this to read a whole batch at once.
+    def fetch_rows(count)
+      raise ArgumentError, "count must be positive, got #{count}" unless count > 0
+      rows = []
+      while rows.size < count && next!
+        rows << values
+      end
+      rows
+    end
+
+    # Yield the remaining rows in Arrays of up to +count+ rows each.
+    def each_batch(count)
+      until (rows = fetch_rows(count)).empty?
+        yield rows
+      end
+      self
+    end
+
+    # Read all remaining rows and return an Array of their values Arrays.
+    def to_a
+      rows = []
+      rows << values while next!
+      rows
+    end
+
   end
 end
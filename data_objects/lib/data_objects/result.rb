@@ -3,12 +3,21 @@ module DataObjects
   class Result
     # The ID of a row inserted by the Command
     attr_accessor :insert_id
+    # The IDs of all rows inserted by the Command, e.g. by a multi-row INSERT
+    attr_writer :insert_ids
     # The number of rows affected by the Command
     attr_accessor :affected_rows
 
     # Create a new Result. Used internally in the adapters.
-    def initialize(command, affected_rows, insert_id = nil)
-      @command, @affected_rows, @insert_id = command, affected_rows, insert_id
+    def initialize(command, affected_rows, insert_id = nil, insert_ids = nil)
+      @command, @affected_rows, @insert_id, @insert_ids = command, affected_rows, insert_id, insert_ids
+    end
+
+    # Return the IDs of all rows inserted by the Command, in the order the
+    # driver reported them. Drivers that only know a single ID return it as
+    # the only element.
+    def insert_ids
+      @insert_ids || (@insert_id.nil? ? [] : [@insert_id])
     end
 
     # Return the number of affected rows
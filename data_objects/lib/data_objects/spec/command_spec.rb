@@ -1,3 +1,7 @@
+require 'stringio'
+require 'tempfile'
+require 'tmpdir'
+
 WINDOWS = Gem.win_platform?
 
 share_examples_for 'a Command' do
@@ -220,3 +224,331 @@ share_examples_for 'a Command with async' do
 
   end
 end
+
+share_examples_for 'a Command with batches' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("INSERT INTO users (name) VALUES (?)")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it { @command.should respond_to(:execute_batch) }
+
+  describe 'execute_batch' do
+
+    describe 'with rows of bind values' do
+
+      before :each do
+        @connection.create_command("DELETE FROM users WHERE name = ?").execute_non_query("batch monkey")
+        @results = @command.execute_batch([["batch monkey"], ["batch monkey"], ["batch monkey"]], 2)
+      end
+
+      it 'should return a Result for each row' do
+        @results.size.should == 3
+        @results.each { |result| result.should be_kind_of(DataObjects::Result) }
+      end
+
+      it 'should return the number of rows each row affected' do
+        @results.map { |result| result.affected_rows }.should == [1, 1, 1]
+      end
+
+      it 'should insert every row' do
+        reader = @connection.create_command("SELECT COUNT(*) FROM users WHERE name = ?").execute_reader("batch monkey")
+        reader.next!
+        reader.values.first.should == 3
+        reader.close
+      end
+
+    end
+
+    describe 'with a row of the wrong number of bind values' do
+
+      it 'should raise an error' do
+        lambda { @command.execute_batch([["Too", "Many"]]) }.should raise_error(ArgumentError, "Binding mismatch: 2 for 1")
+      end
+
+    end
+
+  end
+
+end
+
+share_examples_for 'a Command with columnar results' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT id, code FROM widgets WHERE id < ? ORDER BY id")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it { @command.should respond_to(:execute_columnar) }
+
+  describe 'execute_columnar' do
+
+    before :each do
+      @columns = @command.execute_columnar(4)
+    end
+
+    it 'should return a Column for each field' do
+      @columns.size.should == 2
+      @columns.each { |column| column.should be_kind_of(DataObjects::Column) }
+    end
+
+    it 'should name the columns after the fields' do
+      # downcased, as some drivers return the field names as uppercase
+      @columns.map { |column| column.name.downcase }.should == ['id', 'code']
+    end
+
+    it 'should hold the values of every row' do
+      @columns.map { |column| column.size }.should == [3, 3]
+      @columns.last.to_a.should == ['W0000001', 'W0000002', 'W0000003']
+    end
+
+    it 'should index the values like an Array' do
+      @columns.last[0].should == 'W0000001'
+      @columns.last[-1].should == 'W0000003'
+      @columns.last[3].should be_nil
+    end
+
+    it 'should sum the values of a column' do
+      @columns.first.sum.should == 6
+    end
+
+  end
+
+end
+
+share_examples_for 'a Command with export' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code FROM widgets WHERE id < ? ORDER BY id")
+    @io         = StringIO.new
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it { @command.should respond_to(:export) }
+
+  describe 'export' do
+
+    it 'should return the number of rows written' do
+      @command.export(@io, :csv, 4).should == 3
+    end
+
+    it 'should write CSV by default' do
+      @command.export(@io, :csv, 3)
+      # downcased, as some drivers return the field names as uppercase
+      @io.string.downcase.should == "code\r\nw0000001\r\nw0000002\r\n"
+    end
+
+    it 'should write JSON Lines' do
+      @command.export(@io, :jsonl, 3)
+      @io.string.downcase.should == %Q({"code":"w0000001"}\n{"code":"w0000002"}\n)
+    end
+
+    it 'should raise an error with an unknown format' do
+      lambda { @command.export(@io, :xml, 3) }.should raise_error(ArgumentError)
+    end
+
+  end
+
+end
+
+share_examples_for 'a Command with row limits' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code, name FROM widgets WHERE id < ? ORDER BY id")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  describe 'max_rows' do
+
+    it 'should be nil by default' do
+      @command.max_rows.should be_nil
+    end
+
+    describe 'when set' do
+
+      before :each do
+        @command.max_rows = 2
+      end
+
+      it 'should limit the rows read' do
+        @command.execute_reader(6).to_a.size.should == 2
+      end
+
+      it 'should limit the rows of execute_columnar' do
+        @command.execute_columnar(6).first.size.should == 2
+      end
+
+      it 'should limit the rows of export' do
+        @command.export(StringIO.new, :csv, 6).should == 2
+      end
+
+      it 'should no longer limit the rows once set to nil' do
+        @command.execute_reader(6).close
+        @command.max_rows = nil
+        @command.execute_reader(6).to_a.size.should == 5
+      end
+
+    end
+
+  end
+
+  describe 'max_bytes' do
+
+    it 'should be nil by default' do
+      @command.max_bytes.should be_nil
+    end
+
+    describe 'when exceeded' do
+
+      before :each do
+        @command.max_bytes = 10
+        @reader = @command.execute_reader(6)
+      end
+
+      after :each do
+        @reader.close
+      end
+
+      it 'should raise an error' do
+        lambda { @reader.to_a }.should raise_error(DataObjects::ResultTooLargeError)
+      end
+
+    end
+
+    describe 'when not exceeded' do
+
+      it 'should read every row' do
+        @command.max_bytes = 1024
+        @command.execute_reader(6).to_a.size.should == 5
+      end
+
+    end
+
+  end
+
+end
+
+share_examples_for 'a Command with IO parameters' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+    @path = File.join(Dir.tmpdir, "do_io_parameter_#{$$}")
+    File.open(@path, 'wb') { |file| file.write("\000\001\377 binary") }
+  end
+
+  after :all do
+    File.delete(@path)
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  describe 'binding a StringIO' do
+
+    before :each do
+      @io = StringIO.new("io monkey")
+      @connection.create_command("INSERT INTO users (name) VALUES (?)").execute_non_query(@io)
+    end
+
+    it 'should bind its text' do
+      reader = @connection.create_command("SELECT COUNT(*) FROM users WHERE name = ?").execute_reader("io monkey")
+      reader.next!
+      reader.values.first.should >= 1
+      reader.close
+    end
+
+    it 'should leave it open' do
+      @io.should_not be_closed
+    end
+
+  end
+
+  describe 'binding a File' do
+
+    before :each do
+      File.open(@path) do |file|
+        @connection.create_command("UPDATE widgets SET image_data = ? WHERE id = ?").execute_non_query(file, 16)
+      end
+    end
+
+    it 'should bind its bytes' do
+      command = @connection.create_command("SELECT image_data FROM widgets WHERE id = ?")
+      command.set_types(Extlib::ByteArray)
+      reader = command.execute_reader(16)
+      reader.next!
+      reader.values.first.should == "\000\001\377 binary"
+      reader.close
+    end
+
+  end
+
+  describe 'binding a Tempfile' do
+
+    before :each do
+      file = Tempfile.new('do_io_parameter')
+      file.write("\377\000 tempfile")
+      file.rewind
+      @connection.create_command("UPDATE widgets SET image_data = ? WHERE id = ?").execute_non_query(file, 15)
+      file.close!
+    end
+
+    it 'should bind its bytes' do
+      command = @connection.create_command("SELECT image_data FROM widgets WHERE id = ?")
+      command.set_types(Extlib::ByteArray)
+      reader = command.execute_reader(15)
+      reader.next!
+      reader.values.first.should == "\377\000 tempfile"
+      reader.close
+    end
+
+  end
+
+end
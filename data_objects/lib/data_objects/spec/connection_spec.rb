@@ -126,3 +126,90 @@ share_examples_for 'a Connection with SSL support' do
   end
 
 end
+
+share_examples_for 'a Connection with a statement cache' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it { @connection.should respond_to(:statement_cache_stats) }
+
+  describe 'statement_cache_stats' do
+
+    it 'should count hits, misses and evictions' do
+      [:hits, :misses, :evictions, :size, :capacity].each do |key|
+        @connection.statement_cache_stats[key].should be_kind_of(Integer)
+      end
+    end
+
+    it 'should reuse the statement of a repeated command' do
+      command = @connection.create_command("SELECT code FROM widgets WHERE id = ?")
+      command.execute_reader(1).close
+      hits = @connection.statement_cache_stats[:hits]
+      command.execute_reader(2).close
+      @connection.statement_cache_stats[:hits].should == hits + 1
+    end
+
+  end
+
+end
+
+share_examples_for 'a Connection with query timings' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @connection.class.reset_query_timings
+  end
+
+  after :each do
+    @connection.class.query_timings_enabled = false
+    @connection.class.reset_query_timings
+    @connection.close
+  end
+
+  it 'should not time queries by default' do
+    @connection.class.query_timings_enabled?.should be_false
+    @connection.create_command("SELECT code FROM widgets WHERE id = 1").execute_reader.close
+    @connection.class.query_timings.should == {}
+  end
+
+  describe 'when timing queries' do
+
+    before :each do
+      @connection.class.query_timings_enabled = true
+      reader = @connection.create_command("SELECT code FROM widgets WHERE id = ?").execute_reader(1)
+      reader.to_a
+      reader.close
+    end
+
+    it 'should time the queries by their SQL, without literals' do
+      timings = @connection.class.query_timings["SELECT code FROM widgets WHERE id = ?"]
+      timings[:execute][:count].should == 1
+      timings[:execute][:total].should >= timings[:execute][:max]
+    end
+
+    it 'should forget the timings when reset' do
+      @connection.class.reset_query_timings
+      @connection.class.query_timings.should == {}
+    end
+
+  end
+
+end
@@ -154,3 +154,367 @@ share_examples_for 'a Reader' do
   end
 
 end
+
+share_examples_for 'a Reader with batches' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @reader     = @connection.create_command("SELECT code FROM widgets WHERE id < ? ORDER BY id").execute_reader(6)
+  end
+
+  after :each do
+    @reader.close
+    @connection.close
+  end
+
+  it { @reader.should respond_to(:fetch_rows) }
+
+  describe 'fetch_rows' do
+
+    it 'should return up to count rows' do
+      @reader.fetch_rows(2).should == [["W0000001"], ["W0000002"]]
+      @reader.fetch_rows(4).should == [["W0000003"], ["W0000004"], ["W0000005"]]
+    end
+
+    it 'should return an empty Array at the end' do
+      @reader.fetch_rows(5)
+      @reader.fetch_rows(5).should == []
+    end
+
+    it 'should raise an error with a count of 0' do
+      lambda { @reader.fetch_rows(0) }.should raise_error(ArgumentError)
+    end
+
+  end
+
+  it { @reader.should respond_to(:each_batch) }
+
+  describe 'each_batch' do
+
+    it 'should yield the rows in batches of up to count rows' do
+      sizes = []
+      @reader.each_batch(2) { |rows| sizes << rows.size }
+      sizes.should == [2, 2, 1]
+    end
+
+  end
+
+  it { @reader.should respond_to(:to_a) }
+
+  describe 'to_a' do
+
+    it 'should return the remaining rows' do
+      @reader.next!
+      @reader.to_a.should == [["W0000002"], ["W0000003"], ["W0000004"], ["W0000005"]]
+    end
+
+  end
+
+end
+
+share_examples_for 'a Reader with a fetch size' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code FROM widgets WHERE id < ? ORDER BY id")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it 'should have no fetch size by default' do
+    @connection.fetch_size.should be_nil
+    @command.fetch_size.should be_nil
+  end
+
+  describe 'when streaming a result' do
+
+    before :each do
+      @command.fetch_size = 2
+    end
+
+    it 'should return the fetch size' do
+      @command.fetch_size.should == 2
+    end
+
+    it 'should read every row' do
+      @command.execute_reader(6).to_a.should == [["W0000001"], ["W0000002"], ["W0000003"], ["W0000004"], ["W0000005"]]
+    end
+
+    it "should go back to the connection's fetch size when set to nil" do
+      @command.fetch_size = nil
+      @command.fetch_size.should == @connection.fetch_size
+    end
+
+  end
+
+end
+
+share_examples_for 'a Reader with lazy rows' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code, name FROM widgets WHERE id < ? ORDER BY id")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it 'should not be lazy by default' do
+    @command.lazy_rows?.should be_false
+  end
+
+  describe 'reading lazy rows' do
+
+    before :each do
+      @command.lazy_rows = true
+      @reader = @command.execute_reader(3)
+      @reader.next!
+      @values = @reader.values
+    end
+
+    after :each do
+      @reader.close
+    end
+
+    it 'should be lazy' do
+      @command.lazy_rows?.should be_true
+    end
+
+    it 'should equal the values of the row' do
+      @values.should == ["W0000001", "Widget 1"]
+    end
+
+    it 'should index the values like an Array' do
+      @values.size.should == 2
+      @values[1].should == "Widget 1"
+      @values[-1].should == "Widget 1"
+      @values[0, 2].should == ["W0000001", "Widget 1"]
+      @values[2].should be_nil
+    end
+
+    it 'should convert to an Array' do
+      @values.to_a.should == ["W0000001", "Widget 1"]
+    end
+
+    it 'should read the rows with to_a' do
+      @reader.to_a.map { |row| row.to_a }.should == [["W0000002", "Widget 2"]]
+    end
+
+  end
+
+end
+
+share_examples_for 'a Reader with prefetching' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code, name FROM widgets WHERE id < ? ORDER BY id")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it 'should not prefetch by default' do
+    @command.prefetch_rows.should be_nil
+  end
+
+  describe 'when prefetching' do
+
+    before :each do
+      @command.prefetch_rows = 2
+      @reader = @command.execute_reader(6)
+    end
+
+    after :each do
+      @reader.close
+    end
+
+    it 'should return the prefetch count' do
+      @command.prefetch_rows.should == 2
+    end
+
+    it 'should read every row in order' do
+      @reader.to_a.map { |row| row.first }.should == ["W0000001", "W0000002", "W0000003", "W0000004", "W0000005"]
+    end
+
+    it 'should typecast the values' do
+      @reader.next!
+      @reader.values.should == ["W0000001", "Widget 1"]
+    end
+
+    it 'should return false once the rows are read' do
+      @reader.to_a
+      @reader.next!.should be_false
+    end
+
+    it 'should close before the rows are read' do
+      @reader.next!
+      @reader.close.should be_true
+    end
+
+  end
+
+end
+
+share_examples_for 'a Reader with interned strings' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+    connection = DataObjects::Connection.new(CONFIG.uri)
+    command = connection.create_command("INSERT INTO users (name) VALUES (?)")
+    2.times { command.execute_non_query("intern monkey") }
+    connection.close
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT name FROM users WHERE name = ?")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it 'should not intern strings by default' do
+    @command.intern_strings?.should be_false
+  end
+
+  describe 'when interning strings' do
+
+    before :each do
+      @command.intern_strings = true
+      @rows = @command.execute_reader("intern monkey").to_a
+    end
+
+    it 'should read the values' do
+      @rows.should == [["intern monkey"], ["intern monkey"]]
+    end
+
+    it 'should share one frozen String between the rows' do
+      @rows.first.first.should equal(@rows.last.first)
+      @rows.first.first.should be_frozen
+    end
+
+  end
+
+end
+
+# Needs CONFIG.lob_table, the DDL of a table lobs (id, bin, txt) with a BLOB
+# column bin and a CLOB column txt
+share_examples_for 'a Reader with streamed LOBs' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+    connection = DataObjects::Connection.new(CONFIG.uri)
+    begin
+      connection.create_command("DROP TABLE lobs").execute_non_query
+    rescue StandardError
+      # there was no table to drop
+    end
+    connection.create_command(CONFIG.lob_table).execute_non_query
+    connection.create_command("INSERT INTO lobs (id, bin, txt) VALUES (?, ?, ?)").
+      execute_non_query(1, Extlib::ByteArray.new("\000\001" * 5000), "lob text " * 1000)
+    connection.close
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT bin, txt FROM lobs WHERE id = ?")
+    @command.set_types(Extlib::ByteArray, String)
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  it 'should not stream LOBs by default' do
+    @command.stream_lobs?.should be_false
+  end
+
+  describe 'when streaming LOBs' do
+
+    before :each do
+      @command.stream_lobs = true
+      @reader = @command.execute_reader(1)
+      @reader.next!
+      @blob, @clob = @reader.values
+    end
+
+    after :each do
+      @reader.close
+    end
+
+    it 'should return the size of the values' do
+      @blob.size.should == 10000
+      @clob.size.should == 9000
+    end
+
+    it 'should tell text from binary values' do
+      @blob.should_not be_text
+      @clob.should be_text
+    end
+
+    it 'should read the whole value' do
+      @blob.read.should == "\000\001" * 5000
+      @clob.read.should == "lob text " * 1000
+    end
+
+    it 'should read the value in parts' do
+      @clob.read(4).should == "lob "
+      @clob.read(5).should == "text "
+      @clob.rewind
+      @clob.read(3).should == "lob"
+    end
+
+    it 'should yield the value in chunks' do
+      chunks = []
+      @blob.each(4096) { |chunk| chunks << chunk.size }
+      chunks.should == [4096, 4096, 1808]
+    end
+
+    it 'should close' do
+      @blob.close
+      @blob.should be_closed
+      lambda { @blob.read }.should raise_error(IOError)
+    end
+
+    it 'should no longer read once the reader has moved on' do
+      @reader.next!
+      lambda { @clob.read }.should raise_error(IOError)
+    end
+
+  end
+
+end
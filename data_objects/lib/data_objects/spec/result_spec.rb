@@ -59,3 +59,37 @@ share_examples_for 'a Result which returns inserted keys' do
   end
 
 end
+
+share_examples_for 'a Result which returns all inserted keys' do
+
+  include DataObjectsSpecHelpers
+
+  before :all do
+    setup_test_environment
+  end
+
+  before :each do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("INSERT INTO users (name) VALUES (?)")
+  end
+
+  after :each do
+    @connection.close
+  end
+
+  describe 'insert_ids' do
+
+    it 'should return the inserted key of a single row, if any' do
+      result = @command.execute_non_query("monkey")
+      result.insert_ids.should == (result.insert_id.nil? ? [] : [result.insert_id])
+    end
+
+    it 'should return the keys of a batch that the driver matched to their rows' do
+      @command.execute_batch([["monkey"], ["monkey"]]).each do |result|
+        result.insert_ids.should == (result.insert_id.nil? ? [] : [result.insert_id])
+      end
+    end
+
+  end
+
+end
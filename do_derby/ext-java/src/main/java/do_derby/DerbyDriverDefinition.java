@@ -1,15 +1,8 @@
 package do_derby;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
-import org.jruby.Ruby;
-import org.jruby.runtime.builtin.IRubyObject;
-import org.jruby.util.ByteList;
-
-import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
 
 public class DerbyDriverDefinition extends AbstractDriverDefinition {
@@ -21,33 +14,12 @@ public class DerbyDriverDefinition extends AbstractDriverDefinition {
     }
 
     @Override
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        switch (type) {
-        case BYTE_ARRAY:
-            InputStream binaryStream = rs.getBinaryStream(col);
-            // TODO there are NullPointerExceptions without that.
-            // returning NIL fixes the spec but don't know why
-            // it runs through BYTE_ARRAY
-            if(binaryStream == null){
-                return runtime.getNil();
-            }
-            ByteList bytes = new ByteList(2048);
-            try {
-                byte[] buf = new byte[2048];
-                for (int n = binaryStream.read(buf); n != -1; n = binaryStream
-                        .read(buf)) {
-                    bytes.append(buf, 0, n);
-                }
-            } finally {
-                binaryStream.close();
-            }
-            return API.callMethod(runtime.fastGetModule("Extlib").fastGetClass(
-            "ByteArray"), "new", runtime.newString(bytes));
-        default:
-            return super.doGetTypecastResultSetValue(runtime, rs, col, type);
-        }
+    protected void setNullParam(PreparedStatement ps, int idx)
+            throws SQLException {
+        // Derby only accepts NULLs of the parameter's type; its
+        // ParameterMetaData is known from the prepare, so looking it up
+        // is cheap
+        ps.setNull(idx, ps.getParameterMetaData().getParameterType(idx));
     }
 
     @Override
@@ -7,3 +7,23 @@ describe DataObjects::Derby::Command do
   it_should_behave_like 'a Command'
  # it_should_behave_like 'a Command with async'
 end
+
+describe DataObjects::Derby::Command do
+  it_should_behave_like 'a Command with batches'
+end
+
+describe DataObjects::Derby::Command do
+  it_should_behave_like 'a Command with columnar results'
+end
+
+describe DataObjects::Derby::Command do
+  it_should_behave_like 'a Command with export'
+end
+
+describe DataObjects::Derby::Command do
+  it_should_behave_like 'a Command with row limits'
+end
+
+describe DataObjects::Derby::Command do
+  it_should_behave_like 'a Command with IO parameters'
+end
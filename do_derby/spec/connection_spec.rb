@@ -17,3 +17,11 @@ describe DataObjects::Derby::Connection do
   it_should_behave_like 'a Connection'
   #it_should_behave_like 'a Connection with authentication support'
 end
+
+describe DataObjects::Derby::Connection do
+  it_should_behave_like 'a Connection with a statement cache'
+end
+
+describe DataObjects::Derby::Connection do
+  it_should_behave_like 'a Connection with query timings'
+end
@@ -6,3 +6,27 @@ require 'data_objects/spec/reader_spec'
 describe DataObjects::Derby::Reader do
   it_should_behave_like 'a Reader'
 end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with batches'
+end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with a fetch size'
+end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with lazy rows'
+end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with prefetching'
+end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with interned strings'
+end
+
+describe DataObjects::Derby::Reader do
+  it_should_behave_like 'a Reader with streamed LOBs'
+end
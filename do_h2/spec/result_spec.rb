@@ -14,3 +14,7 @@ end
 describe DataObjects::H2::Result do
   it_should_behave_like 'a Result which returns inserted keys'
 end
+
+describe DataObjects::H2::Result do
+  it_should_behave_like 'a Result which returns all inserted keys'
+end
@@ -52,6 +52,7 @@ CONFIG = OpenStruct.new
 # CONFIG.database = ENV['DO_H2_DATABASE'] || "#{File.expand_path(File.dirname(__FILE__))}/testdb"
 
 CONFIG.uri = ENV["DO_H2_SPEC_URI"] || "jdbc:h2:mem"
+CONFIG.lob_table = "CREATE TABLE lobs (id INTEGER, bin BLOB, txt CLOB)"
 
 module DataObjectsSpecHelpers
 
@@ -5,7 +5,6 @@ import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -13,7 +12,6 @@ import java.sql.Types;
 
 import org.jruby.runtime.builtin.IRubyObject;
 
-import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
 
 
@@ -26,21 +24,6 @@ public class HsqldbDriverDefinition extends AbstractDriverDefinition {
         super(URI_SCHEME, RUBY_MODULE_NAME);
     }
 
-    @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case NIL:
-            // XXX ps.getParameterMetaData().getParameterType(idx) produces
-            // com.mysql.jdbc.ResultSetMetaData:397:in `getField': java.lang.NullPointerException
-            // from com.mysql.jdbc.ResultSetMetaData:275:in `getColumnType'
-            ps.setNull(idx, Types.NULL);
-            break;
-        default:
-            super.setPreparedStatementParam(ps, arg, idx);
-        }
-    }
-
     @Override
     public boolean supportsJdbcGeneratedKeys()
     {
@@ -7,3 +7,23 @@ describe DataObjects::Hsqldb::Command do
   it_should_behave_like 'a Command'
 #  it_should_behave_like 'a Command with async'
 end
+
+describe DataObjects::Hsqldb::Command do
+  it_should_behave_like 'a Command with batches'
+end
+
+describe DataObjects::Hsqldb::Command do
+  it_should_behave_like 'a Command with columnar results'
+end
+
+describe DataObjects::Hsqldb::Command do
+  it_should_behave_like 'a Command with export'
+end
+
+describe DataObjects::Hsqldb::Command do
+  it_should_behave_like 'a Command with row limits'
+end
+
+describe DataObjects::Hsqldb::Command do
+  it_should_behave_like 'a Command with IO parameters'
+end
@@ -6,3 +6,23 @@ require 'data_objects/spec/reader_spec'
 describe DataObjects::Hsqldb::Reader do
   it_should_behave_like 'a Reader'
 end
+
+describe DataObjects::Hsqldb::Reader do
+  it_should_behave_like 'a Reader with batches'
+end
+
+describe DataObjects::Hsqldb::Reader do
+  it_should_behave_like 'a Reader with a fetch size'
+end
+
+describe DataObjects::Hsqldb::Reader do
+  it_should_behave_like 'a Reader with lazy rows'
+end
+
+describe DataObjects::Hsqldb::Reader do
+  it_should_behave_like 'a Reader with prefetching'
+end
+
+describe DataObjects::Hsqldb::Reader do
+  it_should_behave_like 'a Reader with interned strings'
+end
@@ -1,9 +1,5 @@
 
-import data_objects.Command;
-import data_objects.Connection;
-import data_objects.Reader;
-import data_objects.Result;
-import data_objects.Transaction;
+import data_objects.DriverClasses;
 import data_objects.drivers.DriverDefinition;
 import java.io.IOException;
 
@@ -34,12 +30,8 @@ public abstract class AbstractDataObjectsExtService implements BasicLibraryServi
         // Define a driver Error class
         runtime.defineClass(driver.getErrorName(), runtime.getStandardError(), runtime.getStandardError().getAllocator());
 
-        // Define the DataObjects driver classes
-        Command.createCommandClass(runtime, driver);
-        Connection.createConnectionClass(runtime, driver);
-        Result.createResultClass(runtime, driver);
-        Reader.createReaderClass(runtime, driver);
-        Transaction.createTransactionClass(runtime, driver);
+        // Define the DataObjects driver classes, once per runtime
+        DriverClasses.define(runtime, driver);
 
         return true;
     }
@@ -0,0 +1,328 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyBignum;
+import org.jruby.RubyClass;
+import org.jruby.RubyFloat;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.drivers.ValueReader;
+
+/**
+ * Column Class
+ *
+ * A column of a result read by Command#execute_columnar.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "Column")
+public class Column extends DORubyObject {
+
+    public final static String RUBY_CLASS_NAME = "Column";
+
+    private final static int INITIAL_CAPACITY = 16;
+
+    private final static ObjectAllocator COLUMN_ALLOCATOR = new ObjectAllocator() {
+
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new Column(runtime, klass);
+        }
+    };
+
+    public static RubyClass createColumnClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyClass superClass = doModule.getClass(RUBY_CLASS_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+        RubyClass columnClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                superClass, COLUMN_ALLOCATOR);
+        columnClass.defineAnnotatedMethods(Column.class);
+        setDriverDefinition(columnClass, runtime, driver);
+        return columnClass;
+    }
+
+    private RubyString name;
+    private int index;
+    private ValueReader valueReader;
+    // null once the values are held as Ruby objects
+    private PrimitiveType primitiveType;
+
+    private int size;
+    private long[] longs;
+    private double[] doubles;
+    private boolean[] booleans;
+    // the rows whose primitive value is null, or null if there are none
+    private BitSet nulls;
+    private IRubyObject[] objects;
+
+    private Column(Ruby runtime, RubyClass klass) {
+        super(runtime, klass);
+    }
+
+    /**
+     * Prepare the column to be read from a result set.
+     *
+     * @param name the field name
+     * @param index the 1-based index of the column in the result set
+     * @param jdbcType
+     * @param type the Ruby type the values are cast to
+     */
+    void setColumn(RubyString name, int index, int jdbcType, RubyType type) {
+        this.name = name;
+        this.index = index;
+        this.valueReader = driver.getValueReader(type, jdbcType);
+        this.primitiveType = driver.getPrimitiveType(type, jdbcType);
+        if (primitiveType == null) {
+            objects = new IRubyObject[INITIAL_CAPACITY];
+            return;
+        }
+        switch (primitiveType) {
+        case LONG:
+            longs = new long[INITIAL_CAPACITY];
+            break;
+        case DOUBLE:
+            doubles = new double[INITIAL_CAPACITY];
+            break;
+        case BOOLEAN:
+            booleans = new boolean[INITIAL_CAPACITY];
+            break;
+        }
+    }
+
+    /**
+     * Append the column's value of the row the result set's cursor is on.
+     *
+     * @param runtime
+     * @param rs
+     * @throws SQLException
+     * @throws IOException
+     */
+    void read(Ruby runtime, ResultSet rs) throws SQLException, IOException {
+        if (size == capacity()) {
+            grow();
+        }
+        if (primitiveType == null) {
+            objects[size++] = valueReader.get(runtime, rs, index);
+            return;
+        }
+        switch (primitiveType) {
+        case LONG:
+            long lng;
+            try {
+                lng = rs.getLong(index);
+            } catch (SQLException sqle) {
+                // out of the range of long: typecast this and any further
+                // values one by one
+                toObjects(runtime);
+                read(runtime, rs);
+                return;
+            }
+            longs[size] = lng;
+            break;
+        case DOUBLE:
+            doubles[size] = rs.getDouble(index);
+            break;
+        case BOOLEAN:
+            booleans[size] = rs.getBoolean(index);
+            break;
+        }
+        if (rs.wasNull()) {
+            if (nulls == null) {
+                nulls = new BitSet();
+            }
+            nulls.set(size);
+        }
+        size++;
+    }
+
+    // -------------------------------------------------- DATAOBJECTS PUBLIC API
+
+    @JRubyMethod
+    public IRubyObject name() {
+        return name;
+    }
+
+    @JRubyMethod(name = { "size", "length" })
+    public IRubyObject size() {
+        return getRuntime().newFixnum(size);
+    }
+
+    /**
+     * @param index
+     * @return the value of the row at index, or nil if there is no such row
+     */
+    @JRubyMethod(name = "[]", required = 1)
+    public IRubyObject aref(IRubyObject index) {
+        long i = RubyNumeric.num2long(index);
+        if (i < 0) {
+            i += size;
+        }
+        if (i < 0 || i >= size) {
+            return getRuntime().getNil();
+        }
+        return get(getRuntime(), (int) i);
+    }
+
+    /**
+     * Materializes the column's values as Ruby objects.
+     *
+     * @return a new Array of the values
+     */
+    @JRubyMethod
+    public RubyArray to_a() {
+        Ruby runtime = getRuntime();
+        IRubyObject[] values = new IRubyObject[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(runtime, i);
+        }
+        return RubyArray.newArrayNoCopy(runtime, values);
+    }
+
+    /**
+     * Sums the non-nil values. Integer and Float columns are summed without
+     * casting each value to a Ruby object.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject sum() {
+        Ruby runtime = getRuntime();
+        if (primitiveType == PrimitiveType.LONG) {
+            long sum = 0;
+            BigInteger bigSum = null;
+            for (int i = 0; i < size; i++) {
+                if (isNull(i)) {
+                    continue;
+                }
+                long value = longs[i];
+                long result = sum + value;
+                if (((sum ^ result) & (value ^ result)) < 0) {
+                    // overflow: carry on in a BigInteger
+                    BigInteger carry = BigInteger.valueOf(sum).add(BigInteger.valueOf(value));
+                    bigSum = (bigSum == null) ? carry : bigSum.add(carry);
+                    sum = 0;
+                } else {
+                    sum = result;
+                }
+            }
+            if (bigSum == null) {
+                return runtime.newFixnum(sum);
+            }
+            return RubyBignum.bignorm(runtime, bigSum.add(BigInteger.valueOf(sum)));
+        } else if (primitiveType == PrimitiveType.DOUBLE) {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                if (!isNull(i)) {
+                    sum += doubles[i];
+                }
+            }
+            return RubyFloat.newFloat(runtime, sum);
+        }
+        IRubyObject sum = runtime.newFixnum(0);
+        for (int i = 0; i < size; i++) {
+            IRubyObject value = get(runtime, i);
+            if (!value.isNil()) {
+                sum = api.callMethod(sum, "+", value);
+            }
+        }
+        return sum;
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    private IRubyObject get(Ruby runtime, int i) {
+        if (primitiveType == null) {
+            return objects[i];
+        }
+        if (isNull(i)) {
+            return runtime.getNil();
+        }
+        switch (primitiveType) {
+        case LONG:
+            return RubyNumeric.int2fix(runtime, longs[i]);
+        case DOUBLE:
+            return RubyFloat.newFloat(runtime, doubles[i]);
+        default:
+            return runtime.newBoolean(booleans[i]);
+        }
+    }
+
+    private boolean isNull(int i) {
+        return nulls != null && nulls.get(i);
+    }
+
+    private int capacity() {
+        if (primitiveType == null) {
+            return objects.length;
+        }
+        switch (primitiveType) {
+        case LONG:
+            return longs.length;
+        case DOUBLE:
+            return doubles.length;
+        default:
+            return booleans.length;
+        }
+    }
+
+    private void grow() {
+        int capacity = capacity() * 2;
+        if (primitiveType == null) {
+            IRubyObject[] grown = new IRubyObject[capacity];
+            System.arraycopy(objects, 0, grown, 0, size);
+            objects = grown;
+            return;
+        }
+        switch (primitiveType) {
+        case LONG:
+            long[] grownLongs = new long[capacity];
+            System.arraycopy(longs, 0, grownLongs, 0, size);
+            longs = grownLongs;
+            break;
+        case DOUBLE:
+            double[] grownDoubles = new double[capacity];
+            System.arraycopy(doubles, 0, grownDoubles, 0, size);
+            doubles = grownDoubles;
+            break;
+        case BOOLEAN:
+            boolean[] grownBooleans = new boolean[capacity];
+            System.arraycopy(booleans, 0, grownBooleans, 0, size);
+            booleans = grownBooleans;
+            break;
+        }
+    }
+
+    /**
+     * Cast the values read so far to Ruby objects, and hold any further
+     * values as Ruby objects.
+     */
+    private void toObjects(Ruby runtime) {
+        IRubyObject[] values = new IRubyObject[capacity()];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(runtime, i);
+        }
+        objects = values;
+        primitiveType = null;
+        longs = null;
+        doubles = null;
+        booleans = null;
+        nulls = null;
+    }
+
+}
@@ -2,34 +2,51 @@ package data_objects;
 
 import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Formatter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyClass;
+import org.jruby.RubyHash;
+import org.jruby.RubyIO;
+import org.jruby.RubyInteger;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyRange;
+import org.jruby.RubyObjectAdapter;
 import org.jruby.RubyString;
+import org.jruby.RubySymbol;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
-import org.jruby.javasupport.Java;
 import org.jruby.javasupport.JavaEmbedUtils;
-import org.jruby.javasupport.JavaObject;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
 
 import data_objects.drivers.DriverDefinition;
+import data_objects.drivers.ParameterBinders;
 import data_objects.util.JDBCUtil;
+import data_objects.util.ParsedSql;
+import data_objects.util.QueryTimings;
+import data_objects.util.ResultSetExporter;
+import data_objects.util.StatementCache;
 
 
 /**
@@ -44,6 +61,8 @@ public class Command extends DORubyObject {
 
     public final static String RUBY_CLASS_NAME = "Command";
 
+    private final static int DEFAULT_BATCH_SIZE = 1000;
+
     private final static ObjectAllocator COMMAND_ALLOCATOR = new ObjectAllocator() {
         public IRubyObject allocate(Ruby runtime, RubyClass klass) {
             return new Command(runtime, klass);
@@ -65,55 +84,96 @@ public class Command extends DORubyObject {
         return commandClass;
     }
 
+    private ParsedSql parsedSql;
+
+    private final DriverClasses driverClasses;
+
+    private Connection connection;
+    private RubyString text;
+    // the Ruby classes given to set_types, or null to infer the types
+    private RubyArray fieldTypes;
+    // the number of rows readers stream at a time, 0 to read results whole,
+    // or -1 to use the connection's fetch size
+    private int fetchSize = -1;
+    // whether readers hand out LazyRows instead of Arrays
+    private boolean lazyRows;
+    // whether readers hand out BLOBs and CLOBs as Lobs
+    private boolean streamLobs;
+    // the number of rows readers prefetch at a time, or 0 not to prefetch
+    private int prefetchRows;
+    // whether readers share the Strings of repeated values between rows
+    private boolean internStrings;
+    // the most rows a query returns, or 0 for no limit
+    private int maxRows;
+    // the most bytes of values a reader reads, or 0 for no limit
+    private long maxBytes;
+
     private Command(Ruby runtime, RubyClass klass) {
         super(runtime, klass);
+        this.driverClasses = (DriverClasses) JavaEmbedUtils.rubyToJava(klass
+                .getInstanceVariable(DriverClasses.IVAR_NAME));
     }
 
     // -------------------------------------------------- DATAOBJECTS PUBLIC API
 
-    // inherit initialize
+    @JRubyMethod(required = 2)
+    public IRubyObject initialize(IRubyObject connection, IRubyObject text) {
+        if (!(connection instanceof Connection)) {
+            throw getRuntime().newArgumentError(
+                    "+connection+ must be a DataObjects::Connection");
+        }
+        this.connection = (Connection) connection;
+        this.text = api.convertToRubyString(text);
+        this.parsedSql = ParsedSql.parse(this.text.getUnicodeValue());
+        return getRuntime().getNil();
+    }
+
+    @JRubyMethod
+    public IRubyObject connection() {
+        return (connection != null) ? connection : getRuntime().getNil();
+    }
+
+    @JRubyMethod
+    public IRubyObject to_s() {
+        return (text != null) ? text : getRuntime().getNil();
+    }
 
     @JRubyMethod(optional = 1, rest = true)
     public IRubyObject execute_non_query(IRubyObject[] args) {
         Ruby runtime = getRuntime();
-        IRubyObject connection_instance = api.getInstanceVariable(this,
-                "@connection");
-        IRubyObject wrapped_jdbc_connection = api.getInstanceVariable(
-                connection_instance, "@connection");
-        if (wrapped_jdbc_connection.isNil()) {
-            throw driver.newDriverError(runtime,
-                    "This connection has already been closed.");
-        }
-        java.sql.Connection conn = getConnection(wrapped_jdbc_connection);
+        java.sql.Connection conn = getJavaConnection();
+        StatementCache statementCache = connection.getStatementCache();
 
         IRubyObject insert_key = runtime.getNil();
-        RubyClass resultClass = Result.createResultClass(runtime, driver);
+        IRubyObject insert_keys = runtime.getNil();
+        RubyClass resultClass = driverClasses.getResultClass();
         // affectedCount == 1 means 1 updated row
         // or 1 row in result set that represents returned key (insert...returning),
         // other values represents number of updated rows
         int affectedCount = 0;
         PreparedStatement sqlStatement = null;
+        StatementCache.Key statementKey = null;
+        // whether sqlStatement may be handed back to the statement cache
+        boolean reuseStatement = false;
         // if usePreparedStatement returns false
         Statement sqlSimpleStatement = null;
         java.sql.ResultSet keys = null;
 
-        // String sqlText = prepareSqlTextForPs(api.getInstanceVariable(recv,
-        // "@text").asJavaString(), recv, args);
-        String doSqlText = api.convertToRubyString(
-                api.getInstanceVariable(this, "@text")).getUnicodeValue();
-        String sqlText = prepareSqlTextForPs(doSqlText, args);
+        ParsedSql parsedSql = getParsedSql();
+        String sqlText = prepareSqlTextForPs(parsedSql, args);
 
         // additional callback for driver specific SQL statement changes
         sqlText = driver.prepareSqlTextForPs(sqlText, args);
 
-        boolean usePS = usePreparedStatement(sqlText, args);
+        boolean usePS = usePreparedStatement(parsedSql, args);
         boolean hasReturnParam = false;
+        QueryTimings.Query timing = getQueryTiming(parsedSql);
 
         try {
             if (usePS) {
                 if (driver.supportsConnectionPrepareStatementMethodWithGKFlag()) {
-                    sqlStatement = conn.prepareStatement(sqlText,
-                                                         driver.supportsJdbcGeneratedKeys() ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+                    statementKey = new StatementCache.Key(sqlText,
+                                                          driver.supportsJdbcGeneratedKeys() ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
                 } else {
                     // If java.sql.PreparedStatement#getGeneratedKeys() is not supported,
                     // then it is important to call java.sql.Connection#prepareStatement(String)
@@ -124,17 +184,22 @@ public class Command extends DORubyObject {
                     // being SQLiteJDBC which currently throws an ugly (and cryptic)
                     // "NYI" SQLException if Connection#prepareStatement(String, int)
                     // is called.
-                    sqlStatement = conn.prepareStatement(sqlText);
+                    statementKey = new StatementCache.Key(sqlText);
                 }
+                sqlStatement = prepareStatement(conn, statementCache, statementKey);
 
-                hasReturnParam = prepareStatementFromArgs(sqlText, sqlStatement, args);
+                long bindStart = (timing != null) ? System.nanoTime() : 0;
+                hasReturnParam = prepareStatementFromArgs(parsedSql, sqlText, sqlStatement, args);
+                if (timing != null) {
+                    timing.record(QueryTimings.Phase.BIND, System.nanoTime() - bindStart);
+                }
             } else {
                 sqlSimpleStatement = conn.createStatement();
             }
 
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             if (usePS) {
-                if (sqlText.contains("RETURNING") && !hasReturnParam) {
+                if (parsedSql.hasReturning() && !hasReturnParam) {
                     keys = sqlStatement.executeQuery();
                 } else {
                     affectedCount = sqlStatement.executeUpdate();
@@ -142,14 +207,19 @@ public class Command extends DORubyObject {
             } else {
                 sqlSimpleStatement.execute(sqlText);
             }
-            long endTime = System.currentTimeMillis();
+            long endTime = System.nanoTime();
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.EXECUTE, endTime - startTime);
+            }
 
-            if (usePS)
-                debug(driver.statementToString(sqlStatement), Long.valueOf(endTime
-                        - startTime));
-            else
-                debug(sqlText, Long.valueOf(endTime
-                        - startTime));
+            if (connection.isDebugEnabled()) {
+                if (usePS)
+                    debug(driver.statementToString(sqlStatement),
+                            Long.valueOf(endTime - startTime));
+                else
+                    debug(sqlText, Long.valueOf(endTime
+                            - startTime));
+            }
 
             if (usePS && keys == null) {
                 if (driver.supportsJdbcGeneratedKeys()) {
@@ -181,16 +251,26 @@ public class Command extends DORubyObject {
                 }
             }
             if (usePS && keys != null) {
-                insert_key = unmarshal_id_result(keys);
-                if (insert_key != runtime.getNil())
-                    affectedCount = (affectedCount > 0) ? affectedCount : 1;
+                List<IRubyObject> keyList = unmarshal_id_results(keys);
+                if (!keyList.isEmpty()) {
+                    insert_key = keyList.get(0);
+                    insert_keys = runtime.newArray(keyList);
+                    affectedCount = (affectedCount > 0) ? affectedCount : keyList.size();
+                }
             }
 
+            // statements with a registered RETURNING ... INTO ... output
+            // parameter are not reused
+            reuseStatement = !hasReturnParam;
         } catch (SQLException sqle) {
             throw newQueryError(runtime, sqle, usePS ? sqlStatement : sqlSimpleStatement);
         } finally {
             if (usePS) {
-                JDBCUtil.close(sqlStatement);
+                if (reuseStatement) {
+                    releaseStatement(statementCache, statementKey, sqlStatement);
+                } else {
+                    JDBCUtil.close(sqlStatement);
+                }
             } else {
                 JDBCUtil.close(sqlSimpleStatement);
             }
@@ -199,51 +279,205 @@ public class Command extends DORubyObject {
         IRubyObject affected_rows = runtime.newFixnum(affectedCount);
 
         return api.callMethod(resultClass, "new",
-                new IRubyObject[] {this, affected_rows, insert_key });
+                new IRubyObject[] {this, affected_rows, insert_key, insert_keys });
     }
 
-    @JRubyMethod(optional = 1, rest = true)
-    public IRubyObject execute_reader(IRubyObject[] args) {
+    /**
+     * Execute the command once for each of the given rows of bind values,
+     * using JDBC batch updates. Rows are sent to the database in chunks of
+     * batch_size rows.
+     *
+     * The insert_id of each Result is only set when the JDBC driver returns
+     * exactly one generated key per row of the chunk (H2, for one, returns
+     * fewer): otherwise the keys can't be matched to their rows, and
+     * insert_id is nil for every row of the chunk.
+     *
+     * @param args rows (an Array of Arrays of bind values) and an optional
+     *        batch_size
+     * @return an Array with a Result for each row
+     */
+    @JRubyMethod(required = 1, optional = 1)
+    public IRubyObject execute_batch(IRubyObject[] args) {
         Ruby runtime = getRuntime();
-        IRubyObject connection_instance = api.getInstanceVariable(this,
-                "@connection");
-        IRubyObject wrapped_jdbc_connection = api.getInstanceVariable(
-                connection_instance, "@connection");
-        if (wrapped_jdbc_connection.isNil()) {
-            throw driver.newDriverError(runtime,
-                    "This connection has already been closed.");
+        RubyArray rows = args[0].convertToArray();
+        int batchSize = DEFAULT_BATCH_SIZE;
+        if (args.length > 1 && !args[1].isNil()) {
+            batchSize = RubyNumeric.fix2int(args[1]);
+            if (batchSize < 1) {
+                throw runtime.newArgumentError("Batch size must be positive, got "
+                        + batchSize);
+            }
+        }
+
+        java.sql.Connection conn = getJavaConnection();
+        StatementCache statementCache = connection.getStatementCache();
+
+        RubyClass resultClass = driverClasses.getResultClass();
+        int rowCount = rows.getLength();
+        RubyArray results = runtime.newArray(rowCount);
+        if (rowCount == 0) {
+            return results;
+        }
+
+        // all rows share the SQL text, so Array and Range arguments are
+        // expanded according to the first row
+        ParsedSql parsedSql = getParsedSql();
+        IRubyObject[] firstRow = batchRowArgs(rows.eltInternal(0));
+        String sqlText = prepareSqlTextForPs(parsedSql, firstRow);
+        sqlText = driver.prepareSqlTextForPs(sqlText, firstRow);
+
+        boolean generatedKeys = driver.supportsJdbcGeneratedKeys();
+        StatementCache.Key statementKey;
+        if (driver.supportsConnectionPrepareStatementMethodWithGKFlag()) {
+            statementKey = new StatementCache.Key(sqlText,
+                    generatedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+        } else {
+            // see execute_non_query
+            statementKey = new StatementCache.Key(sqlText);
         }
-        java.sql.Connection conn = getConnection(wrapped_jdbc_connection);
 
-        RubyClass readerClass = Reader.createReaderClass(runtime, driver);
+        QueryTimings.Query timing = getQueryTiming(parsedSql);
+        PreparedStatement sqlStatement = null;
+        boolean reuseStatement = false;
+        try {
+            sqlStatement = prepareStatement(conn, statementCache, statementKey);
+
+            for (int start = 0; start < rowCount; start += batchSize) {
+                int end = Math.min(start + batchSize, rowCount);
+                long bindStart = (timing != null) ? System.nanoTime() : 0;
+                for (int i = start; i < end; i++) {
+                    IRubyObject[] rowArgs = (i == 0) ? firstRow
+                            : batchRowArgs(rows.eltInternal(i));
+                    prepareStatementFromArgs(parsedSql, sqlText, sqlStatement, rowArgs, false);
+                    sqlStatement.addBatch();
+                }
+
+                long startTime = System.nanoTime();
+                int[] counts = driver.executeBatch(sqlStatement);
+                long endTime = System.nanoTime();
+                if (timing != null) {
+                    timing.record(QueryTimings.Phase.BIND, startTime - bindStart);
+                    timing.record(QueryTimings.Phase.EXECUTE, endTime - startTime);
+                }
+
+                if (connection.isDebugEnabled()) {
+                    debug("[batch of " + (end - start)
+                            + "] " + sqlText, Long.valueOf(endTime - startTime));
+                }
+
+                List<IRubyObject> keys = null;
+                if (generatedKeys) {
+                    keys = unmarshal_id_results(sqlStatement.getGeneratedKeys());
+                    // keys can only be matched to rows if there is one per row
+                    if (keys.size() != end - start) {
+                        keys = null;
+                    }
+                }
+
+                for (int i = 0; i < end - start; i++) {
+                    // Statement.SUCCESS_NO_INFO, or a driver that reports
+                    // fewer counts than rows, leaves the count unknown
+                    IRubyObject affected_rows = (i < counts.length && counts[i] >= 0)
+                            ? runtime.newFixnum(counts[i]) : runtime.getNil();
+                    IRubyObject insert_key = (keys != null) ? keys.get(i) : runtime.getNil();
+                    results.append(api.callMethod(resultClass, "new",
+                            new IRubyObject[] { this, affected_rows, insert_key }));
+                }
+            }
+            reuseStatement = true;
+        } catch (SQLException sqle) {
+            throw newQueryError(runtime, sqle, sqlStatement);
+        } finally {
+            if (reuseStatement) {
+                releaseStatement(statementCache, statementKey, sqlStatement);
+            } else {
+                JDBCUtil.close(sqlStatement);
+            }
+        }
+
+        return results;
+    }
+
+    @JRubyMethod(optional = 1, rest = true)
+    public IRubyObject execute_reader(IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        java.sql.Connection conn = getJavaConnection();
+        int streamingFetchSize = getFetchSize();
+        boolean streaming = streamingFetchSize > 0;
+        // a streaming statement stays busy with its result until the reader
+        // is closed, and carries vendor specific settings, so it bypasses
+        // the statement cache
+        StatementCache statementCache = streaming ? null : connection.getStatementCache();
+
+        RubyClass readerClass = driverClasses.getReaderClass();
         boolean inferTypes = false;
         int columnCount = 0;
         PreparedStatement sqlStatement = null;
+        StatementCache.Key statementKey = null;
         ResultSet resultSet = null;
         ResultSetMetaData metaData;
 
         // instantiate a new reader
-        IRubyObject reader = readerClass.newInstance(runtime.getCurrentContext(),
-                                                     new IRubyObject[] { }, Block.NULL_BLOCK);
+        Reader reader = (Reader) readerClass.newInstance(runtime.getCurrentContext(),
+                                                         new IRubyObject[] { }, Block.NULL_BLOCK);
+
+        ParsedSql parsedSql = getParsedSql();
+        QueryTimings.Query timing = getQueryTiming(parsedSql);
 
         // execute the query
         try {
-            String sqlText = prepareSqlTextForPs(api.getInstanceVariable(this,
-                    "@text").asJavaString(), args);
+            String sqlText = prepareSqlTextForPs(parsedSql, args);
 
-            sqlStatement = conn.prepareStatement(
+            statementKey = new StatementCache.Key(
                            sqlText,
-                           driver.supportsJdbcScrollableResultSets() ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
+                           (!streaming && driver.supportsJdbcScrollableResultSets()) ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
                            ResultSet.CONCUR_READ_ONLY);
+            sqlStatement = prepareStatement(conn, statementCache, statementKey);
+            if (streaming) {
+                driver.setStreamingFetchSize(sqlStatement, streamingFetchSize);
+            }
+            // also when unlimited, as a cached statement may have been
+            // limited before
+            sqlStatement.setMaxRows(maxRows);
+
+            try {
+                long bindStart = (timing != null) ? System.nanoTime() : 0;
+                prepareStatementFromArgs(parsedSql, sqlText, sqlStatement, args);
+                if (timing != null) {
+                    timing.record(QueryTimings.Phase.BIND, System.nanoTime() - bindStart);
+                }
+            } catch (RaiseException re) {
+                releaseStatement(statementCache, statementKey, sqlStatement);
+                throw re;
+            }
 
-            prepareStatementFromArgs(sqlText, sqlStatement, args);
+            // from here on the reader owns the statement, and hands it back
+            // to the statement cache when it is closed
+            reader.setStatement(sqlStatement, statementCache, statementKey);
+            reader.setQueryTiming(timing);
+            reader.setMaxRows(maxRows);
+            reader.setMaxBytes(maxBytes);
+            if (lazyRows) {
+                reader.setLazyRowClass(driverClasses.getLazyRowClass());
+            }
+
+            if (streaming && driver.requiresTransactionForStreaming()
+                    && conn.getAutoCommit()) {
+                conn.setAutoCommit(false);
+                reader.setAutoCommitConnection(conn);
+            }
 
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             resultSet = sqlStatement.executeQuery();
-            long endTime = System.currentTimeMillis();
+            long endTime = System.nanoTime();
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.EXECUTE, endTime - startTime);
+            }
 
-            debug(driver.statementToString(sqlStatement), Long
-                    .valueOf(endTime - startTime));
+            if (connection.isDebugEnabled()) {
+                debug(driver.statementToString(sqlStatement),
+                        Long.valueOf(endTime - startTime));
+            }
 
             metaData = resultSet.getMetaData();
             columnCount = metaData.getColumnCount();
@@ -253,43 +487,26 @@ public class Command extends DORubyObject {
             if (metaData.getColumnName(columnCount).equals("RAW_RNUM_"))
                 columnCount--;
 
-            // pass the response to the reader
-            IRubyObject wrappedResultSet = Java.java_to_ruby(this, JavaObject
-                    .wrap(getRuntime(), resultSet), Block.NULL_BLOCK);
-            reader.getInstanceVariables().setInstanceVariable("@reader",
-                    wrappedResultSet);
-
-            wrappedResultSet.dataWrapStruct(resultSet);
-
-            // handle each result
-
-            // mark the reader as opened
-            api.setInstanceVariable(reader, "@opened", runtime.getTrue());
             // TODO: if no response return nil
 
-            api.setInstanceVariable(reader, "@position", runtime.newFixnum(0));
-
-            // save the field_count in reader
-            api.setInstanceVariable(reader, "@field_count", runtime.newFixnum(columnCount));
-
             // get the field types
             RubyArray field_names = runtime.newArray();
-            IRubyObject field_types = api.getInstanceVariable(this,
-                    "@field_types");
+            RubyArray field_types = fieldTypes;
 
             // If no types are passed in, infer them
             if (field_types == null) {
                 field_types = runtime.newArray();
                 inferTypes = true;
             } else {
-                int fieldTypesCount = field_types.convertToArray().getLength();
-                if (field_types.isNil() || fieldTypesCount == 0) {
+                int fieldTypesCount = field_types.getLength();
+                if (fieldTypesCount == 0) {
                     field_types = runtime.newArray();
                     inferTypes = true;
                 } else if (fieldTypesCount != columnCount) {
                     // Wrong number of fields passed to set_types. Close the reader
                     // and raise an error.
-                    api.callMethod(reader, "close");
+                    reader.setResult(resultSet, field_names, null);
+                    reader.close();
                     throw runtime.newArgumentError(String.format("Field-count mismatch. Expected %1$d fields, but the query yielded %2$d",
                                                                  fieldTypesCount,
                                                                  columnCount));
@@ -307,23 +524,25 @@ public class Command extends DORubyObject {
                 }
             }
 
-            // set the reader @field_names and @types (guessed or otherwise)
-            api.setInstanceVariable(reader, "@fields", field_names);
-            api.setInstanceVariable(reader, "@field_types", field_types);
+            // pass the response, the field names and the plan for decoding
+            // its rows (with the types guessed or otherwise) to the reader
+            reader.setResult(resultSet, field_names, RowDecoder.create(driver,
+                    metaData, columnCount, field_types, internStrings,
+                    connection.isUtf8Encoded(),
+                    streamLobs ? driverClasses.getLobClass() : null));
+            // LazyRows and Lobs read their values from the cursor's row, so
+            // they can't be prefetched
+            if (prefetchRows > 0 && !lazyRows && !streamLobs) {
+                reader.startPrefetch(prefetchRows);
+            }
 
-            // keep the statement open
+            // keep the statement open, until the reader is closed or has
+            // read the last row
 
         } catch (SQLException sqle) {
             // XXX sqlite3 jdbc driver happily throws an exception if the result set is empty :P
             // this sets up a minimal empty reader
             if (sqle.getMessage().equals("query does not return results")) {
-                IRubyObject wrappedResultSet = Java.java_to_ruby(this,
-                        JavaObject.wrap(getRuntime(), resultSet),
-                        Block.NULL_BLOCK);
-                reader.getInstanceVariables().setInstanceVariable("@reader",
-                        wrappedResultSet);
-
-                wrappedResultSet.dataWrapStruct(resultSet);
                 // get the field types
                 RubyArray field_names = runtime.newArray();
                 // for each field
@@ -343,18 +562,272 @@ public class Command extends DORubyObject {
                     e.printStackTrace();
                 }
 
-                // set the reader @field_names and @types (guessed or otherwise)
-                api.setInstanceVariable(reader, "@fields", field_names);
+                reader.setResult(resultSet, field_names, null);
                 return reader;
             }
 
-            throw newQueryError(runtime, sqle, sqlStatement);
+            RaiseException error = newQueryError(runtime, sqle, sqlStatement);
+            // a statement that failed is not handed back to the cache
+            reader.setStatement(null, null, null);
+            JDBCUtil.close(resultSet);
+            JDBCUtil.close(sqlStatement);
+            reader.restoreAutoCommit();
+            throw error;
         }
 
         // return the reader
         return reader;
     }
 
+    /**
+     * Execute the query and read its whole result into columns.
+     *
+     * @param args bind values
+     * @return an Array with a Column for each field of the result
+     */
+    @JRubyMethod(rest = true)
+    public IRubyObject execute_columnar(IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        java.sql.Connection conn = getJavaConnection();
+        StatementCache statementCache = connection.getStatementCache();
+
+        RubyClass columnClass = driverClasses.getColumnClass();
+        PreparedStatement sqlStatement = null;
+        StatementCache.Key statementKey = null;
+        ResultSet resultSet = null;
+        boolean reuseStatement = false;
+        RubyArray columns = runtime.newArray();
+
+        ParsedSql parsedSql = getParsedSql();
+        QueryTimings.Query timing = getQueryTiming(parsedSql);
+
+        try {
+            String sqlText = prepareSqlTextForPs(parsedSql, args);
+
+            // the result is read in one pass, so it needn't be scrollable
+            statementKey = new StatementCache.Key(sqlText,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlStatement = prepareStatement(conn, statementCache, statementKey);
+            // also when unlimited, as a cached statement may have been
+            // limited before
+            sqlStatement.setMaxRows(maxRows);
+
+            long bindStart = (timing != null) ? System.nanoTime() : 0;
+            prepareStatementFromArgs(parsedSql, sqlText, sqlStatement, args);
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.BIND, System.nanoTime() - bindStart);
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                resultSet = sqlStatement.executeQuery();
+            } catch (SQLException sqle) {
+                // XXX sqlite3 jdbc driver throws an exception if the result
+                // set is empty, see execute_reader
+                if (sqle.getMessage().equals("query does not return results")) {
+                    reuseStatement = true;
+                    return columns;
+                }
+                throw sqle;
+            }
+            long endTime = System.nanoTime();
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.EXECUTE, endTime - startTime);
+            }
+
+            if (connection.isDebugEnabled()) {
+                debug(driver.statementToString(sqlStatement),
+                        Long.valueOf(endTime - startTime));
+            }
+
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columnCount = metaData.getColumnCount();
+
+            // reduce columnCount by 1 if RAW_RNUM_ is present as last column
+            // (generated by DataMapper Oracle adapter to simulate LIMIT and OFFSET)
+            if (metaData.getColumnName(columnCount).equals("RAW_RNUM_"))
+                columnCount--;
+
+            RubyArray field_types = (fieldTypes != null) ? fieldTypes : runtime.newArray();
+            int fieldTypesCount = field_types.getLength();
+            if (fieldTypesCount != 0 && fieldTypesCount != columnCount) {
+                throw runtime.newArgumentError(String.format("Field-count mismatch. Expected %1$d fields, but the query yielded %2$d",
+                                                             fieldTypesCount,
+                                                             columnCount));
+            }
+
+            RowDecoder plan = RowDecoder.create(driver, metaData, columnCount,
+                    field_types, false, false, null);
+            Column[] readers = new Column[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                if (plan.getType(i) == null) {
+                    throw runtime.newRuntimeError("Problem automatically mapping JDBC Type to Ruby Type");
+                }
+                Column column = (Column) columnClass.newInstance(runtime.getCurrentContext(),
+                        new IRubyObject[] { }, Block.NULL_BLOCK);
+                column.setColumn(runtime.newString(metaData.getColumnName(i + 1)),
+                        i + 1, plan.getJdbcType(i), plan.getType(i));
+                readers[i] = column;
+                columns.append(column);
+            }
+
+            // drain the result set into the columns
+            long fetchStart = (timing != null) ? System.nanoTime() : 0;
+            long convertTime = 0;
+            // some drivers (SQLite's, for one) return a row past max_rows
+            int rows = 0;
+            while ((maxRows == 0 || rows++ < maxRows) && resultSet.next()) {
+                long convertStart = (timing != null) ? System.nanoTime() : 0;
+                for (Column column : readers) {
+                    column.read(runtime, resultSet);
+                }
+                if (timing != null) {
+                    convertTime += System.nanoTime() - convertStart;
+                }
+            }
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.FETCH, System.nanoTime() - fetchStart - convertTime);
+                timing.record(QueryTimings.Phase.CONVERT, convertTime);
+            }
+            reuseStatement = true;
+        } catch (SQLException sqle) {
+            throw newQueryError(runtime, sqle, sqlStatement);
+        } catch (IOException ioe) {
+            throw driver.newDriverError(runtime, ioe.getLocalizedMessage());
+        } finally {
+            JDBCUtil.close(resultSet);
+            if (reuseStatement) {
+                releaseStatement(statementCache, statementKey, sqlStatement);
+            } else {
+                JDBCUtil.close(sqlStatement);
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * Execute the query and write its result to io as CSV (the default) or
+     * JSON Lines, straight from the JDBC result set, without typecasting the
+     * values to Ruby objects. The types given to set_types are ignored.
+     *
+     * The bytes are written to the IO's channel, or in chunks with io.write
+     * if it has none (e.g. a StringIO).
+     *
+     * @param args the io, optionally the format (:csv or :jsonl, or a Hash
+     *        with a :format key), and the bind values
+     * @return the number of rows written
+     */
+    @JRubyMethod(required = 1, rest = true)
+    public IRubyObject export(IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        IRubyObject io = args[0];
+        ResultSetExporter.Format format = ResultSetExporter.Format.CSV;
+        int bindStart = 1;
+        if (args.length > 1 && (args[1] instanceof RubySymbol || args[1] instanceof RubyHash)) {
+            format = exportFormat(runtime, args[1]);
+            bindStart = 2;
+        }
+        IRubyObject[] bindArgs = new IRubyObject[args.length - bindStart];
+        System.arraycopy(args, bindStart, bindArgs, 0, bindArgs.length);
+
+        java.sql.Connection conn = getJavaConnection();
+        int streamingFetchSize = getFetchSize();
+        boolean streaming = streamingFetchSize > 0;
+        StatementCache statementCache = streaming ? null : connection.getStatementCache();
+        PreparedStatement sqlStatement = null;
+        StatementCache.Key statementKey = null;
+        ResultSet resultSet = null;
+        boolean reuseStatement = false;
+        boolean restoreAutoCommit = false;
+        long rows = 0;
+
+        ParsedSql parsedSql = getParsedSql();
+        QueryTimings.Query timing = getQueryTiming(parsedSql);
+
+        try {
+            String sqlText = prepareSqlTextForPs(parsedSql, bindArgs);
+
+            statementKey = new StatementCache.Key(sqlText,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlStatement = prepareStatement(conn, statementCache, statementKey);
+            if (streaming) {
+                driver.setStreamingFetchSize(sqlStatement, streamingFetchSize);
+            }
+            // also when unlimited, as a cached statement may have been
+            // limited before
+            sqlStatement.setMaxRows(maxRows);
+
+            long bindStartTime = (timing != null) ? System.nanoTime() : 0;
+            prepareStatementFromArgs(parsedSql, sqlText, sqlStatement, bindArgs);
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.BIND, System.nanoTime() - bindStartTime);
+            }
+
+            if (streaming && driver.requiresTransactionForStreaming()
+                    && conn.getAutoCommit()) {
+                conn.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                resultSet = sqlStatement.executeQuery();
+            } catch (SQLException sqle) {
+                // XXX sqlite3 jdbc driver throws an exception if the result
+                // set is empty, see execute_reader
+                if (!sqle.getMessage().equals("query does not return results")) {
+                    throw sqle;
+                }
+            }
+            long endTime = System.nanoTime();
+            if (timing != null) {
+                timing.record(QueryTimings.Phase.EXECUTE, endTime - startTime);
+            }
+
+            if (connection.isDebugEnabled()) {
+                debug(driver.statementToString(sqlStatement),
+                        Long.valueOf(endTime - startTime));
+            }
+
+            if (resultSet != null) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+
+                // reduce columnCount by 1 if RAW_RNUM_ is present as last column
+                // (generated by DataMapper Oracle adapter to simulate LIMIT and OFFSET)
+                if (metaData.getColumnName(columnCount).equals("RAW_RNUM_"))
+                    columnCount--;
+
+                ResultSetExporter exporter = new ResultSetExporter(format,
+                        exportChannel(runtime, io), timing);
+                rows = exporter.export(resultSet, columnCount, maxRows);
+            }
+            reuseStatement = true;
+        } catch (SQLException sqle) {
+            throw newQueryError(runtime, sqle, sqlStatement);
+        } catch (IOException ioe) {
+            throw runtime.newIOErrorFromException(ioe);
+        } finally {
+            JDBCUtil.close(resultSet);
+            if (reuseStatement) {
+                releaseStatement(statementCache, statementKey, sqlStatement);
+            } else {
+                JDBCUtil.close(sqlStatement);
+            }
+            if (restoreAutoCommit) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException sqle) {
+                    Logger.getLogger(Command.class.getName()).log(Level.SEVERE,
+                            null, sqle);
+                }
+            }
+        }
+
+        return runtime.newFixnum(rows);
+    }
+
     @JRubyMethod(rest = true)
     public IRubyObject set_types(IRubyObject[] args) {
         Ruby runtime = getRuntime();
@@ -377,40 +850,427 @@ public class Command extends DORubyObject {
             }
         }
 
-        api.setInstanceVariable(this, "@field_types", type_strings);
+        fieldTypes = type_strings;
         return types;
     }
 
+    /**
+     * The number of rows the readers of this command stream from the
+     * database at a time, or nil if readers read the whole result when the
+     * query is executed. Defaults to the connection's fetch size.
+     *
+     * A streaming reader holds a forward-only cursor open on the connection
+     * until it is closed, so the memory it uses doesn't grow with the size
+     * of the result.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject fetch_size() {
+        int size = getFetchSize();
+        return (size > 0) ? getRuntime().newFixnum(size) : getRuntime().getNil();
+    }
+
+    /**
+     * Stream the results of this command, size rows at a time, or read them
+     * whole if size is 0, regardless of the connection's fetch size. nil
+     * goes back to the connection's fetch size.
+     *
+     * @param size
+     * @return
+     */
+    @JRubyMethod(name = "fetch_size=", required = 1)
+    public IRubyObject set_fetch_size(IRubyObject size) {
+        fetchSize = size.isNil() ? -1 : Connection.toRowCount(getRuntime(), size, "fetch_size");
+        return size;
+    }
+
+    /**
+     * Whether the readers of this command typecast the values of a row only
+     * when they are first read, see lazy_rows=.
+     *
+     * @return
+     */
+    @JRubyMethod(name = "lazy_rows?")
+    public IRubyObject lazy_rows_p() {
+        return getRuntime().newBoolean(lazyRows);
+    }
+
+    /**
+     * Make the readers of this command hand out the values of each row as a
+     * LazyRow, which typecasts a value only when it is first read, rather
+     * than as an Array of all the typecast values. This saves typecasting
+     * the columns of wide rows that are never read.
+     *
+     * Where the driver's results are scrollable, a LazyRow can be read after
+     * the reader has moved on, so the reader keeps the result and its
+     * statement open past the last row, until it is closed. Otherwise
+     * fetch_rows and to_a typecast each row they read in full, as its
+     * values could not be read afterwards.
+     *
+     * @param lazy
+     * @return
+     */
+    @JRubyMethod(name = "lazy_rows=", required = 1)
+    public IRubyObject set_lazy_rows(IRubyObject lazy) {
+        lazyRows = lazy.isTrue();
+        return lazy;
+    }
+
+    /**
+     * Whether the readers of this command stream BLOB and CLOB values, see
+     * stream_lobs=.
+     *
+     * @return
+     */
+    @JRubyMethod(name = "stream_lobs?")
+    public IRubyObject stream_lobs_p() {
+        return getRuntime().newBoolean(streamLobs);
+    }
+
+    /**
+     * Make the readers of this command hand out the values of BLOB and CLOB
+     * columns as Lobs, IO-like handles that read the value on demand while
+     * the reader is on its row, rather than reading each value whole. This
+     * saves holding large values in memory, and reading those never read.
+     * It is ignored by drivers that don't support LOBs, such as SQLite.
+     *
+     * @param stream
+     * @return
+     */
+    @JRubyMethod(name = "stream_lobs=", required = 1)
+    public IRubyObject set_stream_lobs(IRubyObject stream) {
+        streamLobs = stream.isTrue();
+        return stream;
+    }
+
+    /**
+     * The number of rows the readers of this command read ahead at a time,
+     * or nil if they don't, see prefetch_rows=.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject prefetch_rows() {
+        return (prefetchRows > 0) ? getRuntime().newFixnum(prefetchRows)
+                                  : getRuntime().getNil();
+    }
+
+    /**
+     * Make the readers of this command read the rows of the result on a
+     * background thread, count rows at a time, while the rows read before
+     * are consumed; the rows are typecast as they are taken. At most two
+     * chunks of count rows are read ahead. nil or 0 turns prefetching off; it is ignored with lazy_rows
+     * and stream_lobs.
+     *
+     * The connection must not run other commands while a prefetching reader
+     * is open.
+     *
+     * @param count
+     * @return
+     */
+    @JRubyMethod(name = "prefetch_rows=", required = 1)
+    public IRubyObject set_prefetch_rows(IRubyObject count) {
+        prefetchRows = Connection.toRowCount(getRuntime(), count, "prefetch_rows");
+        return count;
+    }
+
+    /**
+     * Whether the readers of this command share the Strings of repeated
+     * values between rows, see intern_strings=.
+     *
+     * @return
+     */
+    @JRubyMethod(name = "intern_strings?")
+    public IRubyObject intern_strings_p() {
+        return getRuntime().newBoolean(internStrings);
+    }
+
+    /**
+     * Make the readers of this command typecast each distinct value of a
+     * CHAR or VARCHAR column once, and hand out the same frozen String for
+     * every row with that value, rather than a String per row. This saves
+     * memory and time for low-cardinality columns such as status or type
+     * columns; columns with many distinct values fall back to a String per
+     * row.
+     *
+     * @param intern
+     * @return
+     */
+    @JRubyMethod(name = "intern_strings=", required = 1)
+    public IRubyObject set_intern_strings(IRubyObject intern) {
+        internStrings = intern.isTrue();
+        return intern;
+    }
+
+    /**
+     * The most rows the queries of this command return, or nil if there is
+     * no limit, see max_rows=.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject max_rows() {
+        return (maxRows > 0) ? getRuntime().newFixnum(maxRows)
+                             : getRuntime().getNil();
+    }
+
+    /**
+     * Limit the queries of this command (execute_reader, execute_columnar and
+     * export) to count rows. The limit is passed to the database with
+     * Statement#setMaxRows, so the rows past it are silently dropped rather
+     * than fetched. nil or 0 removes the limit.
+     *
+     * @param count
+     * @return
+     */
+    @JRubyMethod(name = "max_rows=", required = 1)
+    public IRubyObject set_max_rows(IRubyObject count) {
+        maxRows = Connection.toRowCount(getRuntime(), count, "max_rows");
+        return count;
+    }
+
+    /**
+     * The most bytes of values the readers of this command read, or nil if
+     * there is no limit, see max_bytes=.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject max_bytes() {
+        return (maxBytes > 0) ? getRuntime().newFixnum(maxBytes)
+                              : getRuntime().getNil();
+    }
+
+    /**
+     * Make the readers of this command raise a
+     * DataObjects::ResultTooLargeError, and close their result, once the
+     * values they have read add up to more than size bytes: Strings count
+     * their length in bytes, any other value but nil 8 bytes. This guards
+     * against queries that unexpectedly return huge results. nil or 0
+     * removes the limit.
+     *
+     * @param size
+     * @return
+     */
+    @JRubyMethod(name = "max_bytes=", required = 1)
+    public IRubyObject set_max_bytes(IRubyObject size) {
+        Ruby runtime = getRuntime();
+        if (size.isNil()) {
+            maxBytes = 0;
+        } else if (!(size instanceof RubyInteger)) {
+            throw runtime.newTypeError(size, runtime.getInteger());
+        } else {
+            long bytes = RubyNumeric.num2long(size);
+            if (bytes < 0) {
+                throw runtime.newArgumentError("Invalid max_bytes: " + bytes);
+            }
+            maxBytes = bytes;
+        }
+        return size;
+    }
+
     // ---------------------------------------------------------- HELPER METHODS
 
-    private static java.sql.Connection getConnection(IRubyObject recv) {
-        return (java.sql.Connection) recv.dataGetStruct();
+    private static ResultSetExporter.Format exportFormat(Ruby runtime,
+            IRubyObject format) {
+        if (format instanceof RubyHash) {
+            format = ((RubyHash) format).fastARef(runtime.newSymbol("format"));
+            if (format == null || format.isNil()) {
+                return ResultSetExporter.Format.CSV;
+            }
+        }
+        String name = format.asJavaString();
+        if ("csv".equals(name)) {
+            return ResultSetExporter.Format.CSV;
+        } else if ("jsonl".equals(name)) {
+            return ResultSetExporter.Format.JSONL;
+        }
+        throw runtime.newArgumentError("Unknown export format: " + name
+                + " (expected :csv or :jsonl)");
+    }
+
+    /**
+     * @return the channel of io, if it is an IO with a writable channel,
+     *         otherwise a channel that writes to io with io.write
+     */
+    private WritableByteChannel exportChannel(Ruby runtime, IRubyObject io) {
+        if (io instanceof RubyIO) {
+            RubyIO rubyIO = (RubyIO) io;
+            Channel channel = rubyIO.getChannel();
+            if (channel instanceof WritableByteChannel) {
+                // write out what the IO buffered before, ahead of the result
+                rubyIO.flush();
+                return (WritableByteChannel) channel;
+            }
+        }
+        return new WriteMethodChannel(runtime, io, api);
+    }
+
+    /**
+     * A channel that writes to a Ruby object with its write method, a Ruby
+     * String per write.
+     */
+    private static final class WriteMethodChannel implements WritableByteChannel {
+
+        private final Ruby runtime;
+        private final IRubyObject io;
+        private final RubyObjectAdapter api;
+
+        WriteMethodChannel(Ruby runtime, IRubyObject io, RubyObjectAdapter api) {
+            this.runtime = runtime;
+            this.io = io;
+            this.api = api;
+        }
+
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            api.callMethod(io, "write", RubyString.newString(runtime,
+                    new ByteList(bytes, false)));
+            return length;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    private int getFetchSize() {
+        return (fetchSize >= 0) ? fetchSize : connection.getFetchSize();
+    }
+
+    /**
+     * @return the JDBC connection of the command's connection
+     * @throws RaiseException if the connection has been closed
+     */
+    private java.sql.Connection getJavaConnection() {
+        java.sql.Connection conn = connection.getJavaConnection();
+        if (conn == null) {
+            throw driver.newDriverError(getRuntime(),
+                    "This connection has already been closed.");
+        }
+        return conn;
+    }
+
+    /**
+     * @param parsedSql
+     * @return the timings to record this command's phases in, or null if
+     *         query timings are disabled
+     */
+    private QueryTimings.Query getQueryTiming(ParsedSql parsedSql) {
+        QueryTimings timings = connection.getQueryTimings();
+        if (timings != null && timings.isEnabled()) {
+            return timings.get(parsedSql.getFingerprint());
+        }
+        return null;
+    }
+
+    /**
+     * Prepare a statement, reusing an idle statement from the connection's
+     * statement cache if there is one.
+     *
+     * @param conn
+     * @param cache the statement cache, or null if there is none
+     * @param key
+     * @return
+     * @throws SQLException
+     */
+    private static PreparedStatement prepareStatement(java.sql.Connection conn,
+            StatementCache cache, StatementCache.Key key) throws SQLException {
+        return (cache != null) ? cache.prepare(conn, key) : key.prepare(conn);
+    }
+
+    /**
+     * Hand a statement back to the connection's statement cache, or close it
+     * if there is no cache.
+     *
+     * @param cache the statement cache, or null if there is none
+     * @param key
+     * @param ps
+     */
+    static void releaseStatement(StatementCache cache, StatementCache.Key key,
+            PreparedStatement ps) {
+        if (cache != null) {
+            cache.release(key, ps);
+        } else {
+            JDBCUtil.close(ps);
+        }
     }
 
     /**
      * Unmarshal a java.sql.Resultset containing generated keys, and return a
-     * Ruby Fixnum with the last key.
+     * Ruby object for each row, typecast according to the driver's mapping of
+     * the key column's JDBC type.
      *
-     * @param runtime
      * @param rs
      * @return
      * @throws java.sql.SQLException
      */
-    public IRubyObject unmarshal_id_result(ResultSet rs) throws SQLException {
+    private List<IRubyObject> unmarshal_id_results(ResultSet rs) throws SQLException {
+        List<IRubyObject> keys = new ArrayList<IRubyObject>();
+        if (rs == null) {
+            return keys;
+        }
+        Ruby runtime = getRuntime();
         try {
-            if (rs.next()) {
-                if (rs.getMetaData().getColumnCount() > 0) {
-                    // TODO: Need to do check for other types here, as keys could be
-                    // of type Integer, Long or String
-                    return getRuntime().newFixnum(rs.getLong(1));
+            ResultSetMetaData metaData = rs.getMetaData();
+            if (metaData.getColumnCount() > 0) {
+                RubyType type = generatedKeyType(metaData);
+                int jdbcType = metaData.getColumnType(1);
+                while (rs.next()) {
+                    keys.add(driver.getTypecastResultSetValue(runtime, rs, 1, type, jdbcType));
                 }
             }
-            return getRuntime().getNil();
+            return keys;
+        } catch (IOException ioe) {
+            throw driver.newDriverError(runtime, ioe.getLocalizedMessage());
         } finally {
             JDBCUtil.close(rs);
         }
     }
 
+    /**
+     * The Ruby type of a generated key column.
+     *
+     * @param metaData
+     * @return
+     * @throws SQLException
+     */
+    private RubyType generatedKeyType(ResultSetMetaData metaData) throws SQLException {
+        int jdbcType = metaData.getColumnType(1);
+        int scale = metaData.getScale(1);
+        RubyType type = driver.jdbcTypeToRubyType(jdbcType,
+                metaData.getPrecision(1), scale);
+        if (type == null || type == RubyType.NIL) {
+            // e.g. SQLite's "SELECT last_insert_rowid()" has no declared type
+            return RubyType.INTEGER;
+        }
+        if (type == RubyType.BIG_DECIMAL && scale == 0) {
+            // Derby and SQL Server report identity keys as DECIMAL/NUMERIC
+            return RubyType.INTEGER;
+        }
+        return type;
+    }
+
+    /**
+     * Bind values of a row given to execute_batch: an Array of values, or a
+     * single value.
+     *
+     * @param row
+     * @return
+     */
+    private static IRubyObject[] batchRowArgs(IRubyObject row) {
+        if (row instanceof RubyArray) {
+            return ((RubyArray) row).toJavaArray();
+        }
+        return new IRubyObject[] { row };
+    }
+
     private RaiseException newQueryError(Ruby runtime, SQLException sqle,
             Statement statement) {
         // TODO: provide an option to display extended debug information, for
@@ -426,6 +1286,15 @@ public class Command extends DORubyObject {
         }
     }
 
+    /**
+     * The command's SQL text, parsed once when the command was created.
+     *
+     * @return
+     */
+    private ParsedSql getParsedSql() {
+        return parsedSql;
+    }
+
     /**
      * Assist with the formatting of SQL Text Strings for PreparedStatements.
      *
@@ -436,114 +1305,133 @@ public class Command extends DORubyObject {
      * converted appropriately to "(?,?)" or "(? AND ?)".
      *
      * This method appropriately converts the question mark syntax from
-     * DataObjects-style to JDBC PreparedStatement-style.
+     * DataObjects-style to JDBC PreparedStatement-style, in a single pass
+     * over the placeholder positions found by the parsed SQL text.
      *
-     * @param doSqlText
-     * @param recv
+     * @param parsedSql
      * @param args
      * @return a SQL Text java.lang.String formatted for preparing a PreparedStatement
      */
-    private String prepareSqlTextForPs(String doSqlText, IRubyObject[] args) {
-
+    private String prepareSqlTextForPs(ParsedSql parsedSql, IRubyObject[] args) {
+        String doSqlText = parsedSql.getSql();
         if (args.length == 0) return doSqlText;
-        // long timeStamp = System.currentTimeMillis(); // XXX for debug
-        // System.out.println(""+timeStamp+" SQL before replacements @: " + doSqlText); // XXX for debug
-        String psSqlText = doSqlText;
-        int addedSymbols=0;
 
-        for (int i = 0; i < args.length; i++) {
+        // arguments without a matching placeholder are reported as a binding
+        // mismatch later on
+        int count = Math.min(args.length, parsedSql.getPlaceholderCount());
+        StringBuilder sb = null;
+        int last = 0;
 
-            if (args[i] instanceof RubyArray) {
-                // replace "?" with "(?,?)"
-                // calculate replacement string, depending on the length of the
-                // RubyArray - i.e. should it be "(?)" or "(?,?,?)
-                // System.out.println(""+timeStamp+" RubyArray @: " + args[i]); // XXX for debug
-                StringBuffer replaceSb = new StringBuffer("(");
-                int arrayLength = args[i].convertToArray().getLength();
+        for (int i = 0; i < count; i++) {
+            IRubyObject arg = args[i];
+            if (!(arg instanceof RubyArray || arg instanceof RubyRange)) {
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(doSqlText.length() + 16);
+            }
+            int pos = parsedSql.getPlaceholderPosition(i);
+            sb.append(doSqlText, last, pos);
+            last = pos + 1;
 
+            if (arg instanceof RubyArray) {
+                // replace "?" with "(?,?)", depending on the length of the
+                // RubyArray - i.e. should it be "(?)" or "(?,?,?)
+                int arrayLength = ((RubyArray) arg).getLength();
+                sb.append('(');
                 for (int j = 0; j < arrayLength; j++) {
-                    replaceSb.append("?");
-                    if (j < arrayLength - 1) replaceSb.append(",");
-                }
-                replaceSb.append(")");
-
-                Pattern pp = Pattern.compile("\\?");
-                Matcher pm = pp.matcher(psSqlText);
-                StringBuffer sb = new StringBuffer();
-
-                int count = 0;
-                lbWhile:
-                while (pm.find()) {
-                    if (count == (i+addedSymbols)){
-                        pm.appendReplacement(sb, replaceSb.toString());
-                        addedSymbols += arrayLength-1;
-                        break lbWhile;
-                    }
-                    count++;
+                    if (j > 0) sb.append(',');
+                    sb.append('?');
                 }
-                pm.appendTail(sb);
-                psSqlText = sb.toString();
-            } else if (args[i] instanceof RubyRange) {
-                // replace "?" with "(?,?)"
-                // System.out.println(""+timeStamp+" RubyRange @: " + args[i]); // XXX for debug
-                Pattern pp = Pattern.compile("\\?");
-                Matcher pm = pp.matcher(psSqlText);
-                StringBuffer sb = new StringBuffer();
-
-                int count = 0;
-                lbWhile:
-                while (pm.find()) {
-                    if (count ==(i+addedSymbols)){
-                        pm.appendReplacement(sb, "? AND ?"); // XXX was (? AND ?)
-                        addedSymbols += 1;
-                        break lbWhile;
-                    }
-                    count++;
-                }
-                pm.appendTail(sb);
-                psSqlText = sb.toString();
+                sb.append(')');
             } else {
-                // System.out.println(""+timeStamp+" Nothing @: " + args[i]); // XXX for debug
-                // do nothing
+                // replace "?" with "? AND ?"
+                sb.append("? AND ?");
+            }
+        }
+
+        if (sb == null) return doSqlText;
+        sb.append(doSqlText, last, doSqlText.length());
+        return sb.toString();
+    }
+
+    /**
+     * The number of placeholders of the SQL text prepareSqlTextForPs makes
+     * from the parsed SQL text for the given arguments, worked out without
+     * parsing that text again.
+     *
+     * @param parsedSql
+     * @param args
+     * @return the number of "?" placeholders, with those of Array and Range
+     *         arguments expanded
+     */
+    private static int getPlaceholderCount(ParsedSql parsedSql, IRubyObject[] args) {
+        int placeholders = parsedSql.getPlaceholderCount();
+        int psCount = placeholders;
+        int count = Math.min(args.length, placeholders);
+        for (int i = 0; i < count; i++) {
+            IRubyObject arg = args[i];
+            if (arg instanceof RubyArray) {
+                psCount += ((RubyArray) arg).getLength() - 1;
+            } else if (arg instanceof RubyRange) {
+                psCount++;
             }
         }
-        // System.out.println(""+timeStamp+" SQL after replacements @: " + psSqlText); // XXX for debug
-        return psSqlText;
+        return psCount;
     }
 
     /**
      * Check SQL string and tell if PreparedStatement or Statement should be used.
      * Necessary for Oracle driver as Statement should be used for CREATE TRIGGER statements.
      *
-     * @param doSqlText
+     * @param parsedSql
      * @param args
      * @return true if PreparedStatement should be used or false if Statement should be used
      */
-    private boolean usePreparedStatement(String doSqlText, IRubyObject[] args) {
+    private boolean usePreparedStatement(ParsedSql parsedSql, IRubyObject[] args) {
         // if parameters are present then use PreparedStatement
         if (args.length > 0) return true;
 
-        // check if SQL starts with CREATE
-        Pattern p = Pattern.compile("\\A\\s*(CREATE|DROP)", Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(doSqlText);
-        return !m.find();
+        // check if SQL starts with CREATE or DROP
+        return !parsedSql.isDdl();
     }
 
     /**
      * Assist with setting the parameter values on a PreparedStatement
      *
+     * @param parsedSql the parsed SQL text of the command
+     * @param sqlText the SQL text the PreparedStatement was prepared with
      * @param ps the PreparedStatement for which parameters should be set
-     * @param recv
      * @param args an array of parameter values
      *
      * @return true if there is return parameter, false if there is not
      */
-    private boolean prepareStatementFromArgs(String sqlText, PreparedStatement ps,
-            IRubyObject[] args) {
+    private boolean prepareStatementFromArgs(ParsedSql parsedSql, String sqlText,
+            PreparedStatement ps, IRubyObject[] args) {
+        return prepareStatementFromArgs(parsedSql, sqlText, ps, args, true);
+    }
+
+    /**
+     * Assist with setting the parameter values on a PreparedStatement
+     *
+     * @param parsedSql the parsed SQL text of the command
+     * @param sqlText the SQL text the PreparedStatement was prepared with
+     * @param ps the PreparedStatement for which parameters should be set
+     * @param args an array of parameter values
+     * @param registerReturnParam whether a RETURNING ... INTO ... output
+     *        parameter may be registered (not possible in batches)
+     *
+     * @return true if there is return parameter, false if there is not
+     */
+    private boolean prepareStatementFromArgs(ParsedSql parsedSql, String sqlText,
+            PreparedStatement ps, IRubyObject[] args, boolean registerReturnParam) {
         int index = 1;
         boolean hasReturnParam = false;
         try {
-            int psCount = ps.getParameterMetaData().getParameterCount();
+            // the number of placeholders comes from the parsed SQL text, as
+            // ParameterMetaData may cost a round trip to the database
+            int psCount = getPlaceholderCount(parsedSql, args);
+            ParameterBinders binders = driverClasses.getParameterBinders();
             // fail fast
             if (args.length > psCount) {
                 throw getRuntime().newArgumentError(
@@ -568,8 +1456,7 @@ public class Command extends DORubyObject {
                     RubyArray arrayValues = arg.convertToArray();
 
                     for (int j = 0; j < arrayValues.getLength(); j++) {
-                        driver.setPreparedStatementParam(ps, arrayValues
-                                .eltInternal(j), index++);
+                        binders.bind(ps, arrayValues.eltInternal(j), index++);
                     }
                 } else if (arg instanceof RubyRange) {
                     // Handle a RubyRange passed into a query
@@ -579,25 +1466,25 @@ public class Command extends DORubyObject {
 
                     RubyRange range_value = (RubyRange) arg;
 
-                    driver.setPreparedStatementParam(ps, range_value.first(), index++);
-                    driver.setPreparedStatementParam(ps, range_value.last(), index++);
+                    binders.bind(ps, range_value.first(), index++);
+                    binders.bind(ps, range_value.last(), index++);
 
                 } else {
                     // Otherwise, handle each argument
-                    driver.setPreparedStatementParam(ps, arg, index++);
+                    binders.bind(ps, arg, index++);
                 }
             }
 
-            // callback for binding RETURN ... INTO ... output parameter
-            if (driver.registerPreparedStatementReturnParam(sqlText, ps, index)) {
-                index++;
-                hasReturnParam = true;
-            }
-
             if ((index - 1) < psCount) {
                 throw getRuntime().newArgumentError(
                         "Binding mismatch: " + (index - 1) + " for " + psCount);
             }
+
+            // callback for binding RETURN ... INTO ... output parameter
+            if (registerReturnParam
+                    && driver.registerPreparedStatementReturnParam(sqlText, ps, index)) {
+                hasReturnParam = true;
+            }
             return hasReturnParam;
         } catch (SQLException sqle) {
             // TODO: possibly move this exception string parsing somewhere else
@@ -619,29 +1506,22 @@ public class Command extends DORubyObject {
     /**
      * Output a log message
      *
-     * @param runtime
      * @param logMessage
-     * @param executionTime
+     * @param executionTime in nanoseconds
      */
     private void debug(String logMessage, Long executionTime) {
-        RubyModule driverModule = (RubyModule) getRuntime().getModule(
-                DATA_OBJECTS_MODULE_NAME).getConstant(driver.getModuleName());
-        IRubyObject logger = api.callMethod(driverModule, "logger");
-        int level = RubyNumeric.fix2int(api.callMethod(logger, "level"));
-
-        if (level == 0) {
-            StringBuffer msgSb = new StringBuffer();
-            Formatter formatter = new Formatter(msgSb);
+        IRubyObject logger = connection.getLogger();
+        StringBuffer msgSb = new StringBuffer();
+        Formatter formatter = new Formatter(msgSb);
 
-            if (executionTime != null) {
-                formatter.format("(%.3f) ", executionTime / 1000.0);
-            }
+        if (executionTime != null) {
+            formatter.format("(%.3f) ", executionTime / 1000000000.0);
+        }
 
-            msgSb.append(logMessage);
+        msgSb.append(logMessage);
 
-            api.callMethod(logger, "debug", getRuntime().newString(
-                    msgSb.toString()));
-        }
+        api.callMethod(logger, "debug", getRuntime().newString(
+                msgSb.toString()));
     }
 
 }
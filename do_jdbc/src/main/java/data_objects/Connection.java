@@ -17,10 +17,16 @@ import javax.sql.DataSource;
 
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyHash;
+import org.jruby.RubyInteger;
 import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyString;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.javasupport.Java;
+import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.javasupport.JavaObject;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
@@ -29,6 +35,8 @@ import org.jruby.runtime.builtin.IRubyObject;
 
 import data_objects.drivers.DriverDefinition;
 import data_objects.util.JDBCUtil;
+import data_objects.util.QueryTimings;
+import data_objects.util.StatementCache;
 import org.jruby.runtime.callback.Callback;
 
 /**
@@ -44,6 +52,10 @@ public final class Connection extends DORubyObject {
 
     private static final String JNDI_PROTO = "jndi://";
     private static final String UTF8_ENCODING = "UTF-8";
+    private static final String STATEMENT_CACHE_SIZE_PARAM = "statement_cache_size";
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    private static final String FETCH_SIZE_PARAM = "fetch_size";
+    private static final String QUERY_TIMINGS_IVAR = "@__query_timings";
 
     private static final ObjectAllocator CONNECTION_ALLOCATOR = new ObjectAllocator() {
 
@@ -62,6 +74,8 @@ public final class Connection extends DORubyObject {
                 RUBY_CLASS_NAME, superClass, CONNECTION_ALLOCATOR);
         connectionClass.defineAnnotatedMethods(Connection.class);
         setDriverDefinition(connectionClass, runtime, driver);
+        connectionClass.setInstanceVariable(QUERY_TIMINGS_IVAR,
+                JavaEmbedUtils.javaToRuby(runtime, new QueryTimings()));
 
         if (driver.supportsConnectionEncodings()) {
             connectionClass.defineFastMethod("character_set", new Callback() {
@@ -76,8 +90,28 @@ public final class Connection extends DORubyObject {
         return connectionClass;
     }
 
+    private StatementCache statementCache;
+
+    // the number of rows readers stream at a time, or 0 to read results whole
+    private int fetchSize;
+
+    // the JDBC connection, or null once disposed; @connection holds the same
+    // connection wrapped for Ruby code
+    private java.sql.Connection javaConnection;
+
+    // shared by all connections of the driver, see query_timings
+    private final QueryTimings queryTimings;
+
+    // the driver module's logger and its level as last seen by isDebugEnabled()
+    private RubyModule driverModule;
+    private IRubyObject cachedLogger;
+    private IRubyObject cachedLevel;
+    private boolean dataObjectsLogger;
+    private boolean debugEnabled;
+
     private Connection(final Ruby runtime, final RubyClass klass) {
         super(runtime, klass);
+        this.queryTimings = getQueryTimings(klass);
     }
 
     // -------------------------------------------------- DATAOBJECTS PUBLIC API
@@ -87,6 +121,7 @@ public final class Connection extends DORubyObject {
         Ruby runtime = getRuntime();
         String jdbcDriver = null;
         String encoding = null;
+        int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
         java.net.URI connectionUri;
         Map<String, String> query = null;
 
@@ -121,6 +156,33 @@ public final class Connection extends DORubyObject {
                     encoding = query.get("charset");
                 }
             }
+
+            // the number of idle statements to keep, 0 for no caching
+            String cacheSize = query.get(STATEMENT_CACHE_SIZE_PARAM);
+            if (cacheSize != null) {
+                try {
+                    statementCacheSize = Integer.parseInt(cacheSize);
+                } catch (NumberFormatException ex) {
+                    statementCacheSize = -1;
+                }
+                if (statementCacheSize < 0) {
+                    throw runtime.newArgumentError("Invalid "
+                            + STATEMENT_CACHE_SIZE_PARAM + ": " + cacheSize);
+                }
+            }
+
+            String fetchSizeParam = query.get(FETCH_SIZE_PARAM);
+            if (fetchSizeParam != null) {
+                try {
+                    fetchSize = Integer.parseInt(fetchSizeParam);
+                } catch (NumberFormatException ex) {
+                    fetchSize = -1;
+                }
+                if (fetchSize < 0) {
+                    throw runtime.newArgumentError("Invalid "
+                            + FETCH_SIZE_PARAM + ": " + fetchSizeParam);
+                }
+            }
         }
 
         if (driver.supportsConnectionEncodings()) {
@@ -217,11 +279,14 @@ public final class Connection extends DORubyObject {
                                         + "\n\t" + ex.getLocalizedMessage());
         }
 
+        statementCache = new StatementCache(statementCacheSize);
+
         IRubyObject rubyconn = wrappedConnection(conn);
 
         api.setInstanceVariable(this, "@uri", uri);
         api.setInstanceVariable(this, "@connection", rubyconn);
         rubyconn.dataWrapStruct(conn);
+        javaConnection = conn;
 
         return runtime.getTrue();
     }
@@ -230,18 +295,17 @@ public final class Connection extends DORubyObject {
     public IRubyObject dispose() {
         // System.out.println("============== dispose called");
         Ruby runtime = getRuntime();
-        IRubyObject connection = api.getInstanceVariable(this, "@connection");
-        if (connection.isNil()) {
-            return runtime.getFalse();
-        }
-
-        java.sql.Connection conn = getConnection(connection);
+        java.sql.Connection conn = javaConnection;
         if (conn == null) {
             return runtime.getFalse();
         }
 
+        if (statementCache != null) {
+            statementCache.close();
+        }
         JDBCUtil.close(conn);
 
+        javaConnection = null;
         api.setInstanceVariable(this, "@connection", runtime.getNil());
         return runtime.getTrue();
     }
@@ -254,15 +318,261 @@ public final class Connection extends DORubyObject {
         return getRuntime().newString(quoted);
     }
 
+    /**
+     * Hit, miss and eviction counters of the connection's PreparedStatement
+     * cache.
+     *
+     * @return a Hash
+     */
+    @JRubyMethod
+    public IRubyObject statement_cache_stats() {
+        Ruby runtime = getRuntime();
+        RubyHash stats = RubyHash.newHash(runtime);
+        if (statementCache == null) {
+            return stats;
+        }
+        stats.fastASet(runtime.newSymbol("hits"),
+                runtime.newFixnum(statementCache.getHits()));
+        stats.fastASet(runtime.newSymbol("misses"),
+                runtime.newFixnum(statementCache.getMisses()));
+        stats.fastASet(runtime.newSymbol("evictions"),
+                runtime.newFixnum(statementCache.getEvictions()));
+        stats.fastASet(runtime.newSymbol("size"),
+                runtime.newFixnum(statementCache.size()));
+        stats.fastASet(runtime.newSymbol("capacity"),
+                runtime.newFixnum(statementCache.getCapacity()));
+        return stats;
+    }
+
+    /**
+     * The number of rows the readers of this connection's commands stream from
+     * the database at a time, or nil if readers read the whole result when
+     * the query is executed. Set with the fetch_size query parameter of the
+     * connection URI, or with fetch_size=.
+     *
+     * @return
+     * @see Command#fetch_size()
+     */
+    @JRubyMethod
+    public IRubyObject fetch_size() {
+        return (fetchSize > 0) ? getRuntime().newFixnum(fetchSize)
+                               : getRuntime().getNil();
+    }
+
+    /**
+     * Stream the results of this connection's queries, size rows at a time,
+     * or read them whole if size is nil or 0.
+     *
+     * @param size
+     * @return
+     */
+    @JRubyMethod(name = "fetch_size=", required = 1)
+    public IRubyObject set_fetch_size(final IRubyObject size) {
+        fetchSize = toRowCount(getRuntime(), size, FETCH_SIZE_PARAM);
+        return size;
+    }
+
+    /**
+     * Snapshot of the query timings of all connections of this driver, in
+     * nanoseconds, as a Hash of SQL fingerprint to a Hash of phase (:bind,
+     * :execute, :fetch, :convert) to the phase's :count, :total, :min, :max
+     * and :histogram. The histogram maps the exclusive upper bound of each
+     * non-empty power-of-two bucket to its count.
+     *
+     * @param recv
+     * @return
+     */
+    @JRubyMethod(meta = true)
+    public static IRubyObject query_timings(final IRubyObject recv) {
+        Ruby runtime = recv.getRuntime();
+        RubyHash snapshot = RubyHash.newHash(runtime);
+        QueryTimings timings = getQueryTimings((RubyClass) recv);
+        if (timings == null) {
+            return snapshot;
+        }
+        for (Map.Entry<String, QueryTimings.Histogram[]> entry : timings.snapshot().entrySet()) {
+            RubyHash phases = RubyHash.newHash(runtime);
+            for (QueryTimings.Phase phase : QueryTimings.Phase.values()) {
+                QueryTimings.Histogram histogram = entry.getValue()[phase.ordinal()];
+                RubyHash buckets = RubyHash.newHash(runtime);
+                for (int i = 0; i < histogram.getBucketCount(); i++) {
+                    if (histogram.getBucket(i) > 0) {
+                        buckets.fastASet(runtime.newFixnum(histogram.getBucketLimit(i)),
+                                runtime.newFixnum(histogram.getBucket(i)));
+                    }
+                }
+                RubyHash stats = RubyHash.newHash(runtime);
+                stats.fastASet(runtime.newSymbol("count"), runtime.newFixnum(histogram.getCount()));
+                stats.fastASet(runtime.newSymbol("total"), runtime.newFixnum(histogram.getTotal()));
+                stats.fastASet(runtime.newSymbol("min"), runtime.newFixnum(histogram.getMin()));
+                stats.fastASet(runtime.newSymbol("max"), runtime.newFixnum(histogram.getMax()));
+                stats.fastASet(runtime.newSymbol("histogram"), buckets);
+                phases.fastASet(runtime.newSymbol(phase.name().toLowerCase()), stats);
+            }
+            // Hash#[]= freezes the String keys it is given, and so does this
+            RubyString fingerprint = runtime.newString(entry.getKey());
+            fingerprint.setFrozen(true);
+            snapshot.fastASet(fingerprint, phases);
+        }
+        return snapshot;
+    }
+
+    @JRubyMethod(meta = true)
+    public static IRubyObject reset_query_timings(final IRubyObject recv) {
+        QueryTimings timings = getQueryTimings((RubyClass) recv);
+        if (timings != null) {
+            timings.reset();
+        }
+        return recv.getRuntime().getNil();
+    }
+
+    @JRubyMethod(name = "query_timings_enabled?", meta = true)
+    public static IRubyObject query_timings_enabled_p(final IRubyObject recv) {
+        QueryTimings timings = getQueryTimings((RubyClass) recv);
+        return recv.getRuntime().newBoolean(timings != null && timings.isEnabled());
+    }
+
+    /**
+     * Turn collecting query timings on or off. Timings are off by default.
+     *
+     * @param recv
+     * @param enabled
+     * @return
+     */
+    @JRubyMethod(name = "query_timings_enabled=", meta = true, required = 1)
+    public static IRubyObject set_query_timings_enabled(final IRubyObject recv,
+            final IRubyObject enabled) {
+        QueryTimings timings = getQueryTimings((RubyClass) recv);
+        if (timings != null) {
+            timings.setEnabled(enabled.isTrue());
+        }
+        return enabled;
+    }
+
+    // -------------------------------------------------- PACKAGE HELPER METHODS
+
+    /**
+     * @return the JDBC connection, or null if the connection has been disposed
+     */
+    java.sql.Connection getJavaConnection() {
+        return javaConnection;
+    }
+
+    int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return whether the JDBC driver reads text in UTF-8: whether the
+     *         connection's encoding is UTF-8, for drivers that support
+     *         connection encodings
+     */
+    boolean isUtf8Encoded() {
+        if (!driver.supportsConnectionEncodings()) {
+            return true;
+        }
+        IRubyObject encoding = getInstanceVariables().fastGetInstanceVariable("@encoding");
+        if (encoding == null || encoding.isNil()) {
+            return false;
+        }
+        String name = encoding.asJavaString();
+        return UTF8_ENCODING.equalsIgnoreCase(name) || "UTF8".equalsIgnoreCase(name);
+    }
+
+    /**
+     * @param runtime
+     * @param count nil or a non-negative Integer
+     * @param name the name of the setting, for error messages
+     * @return the number of rows, with 0 for nil
+     */
+    static int toRowCount(Ruby runtime, IRubyObject count, String name) {
+        if (count.isNil()) {
+            return 0;
+        }
+        if (!(count instanceof RubyInteger)) {
+            throw runtime.newTypeError(count, runtime.getInteger());
+        }
+        long value = RubyNumeric.num2long(count);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw runtime.newArgumentError("Invalid " + name + ": " + value);
+        }
+        return (int) value;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    QueryTimings getQueryTimings() {
+        return queryTimings;
+    }
+
+    /**
+     * Whether the driver module's logger is at debug level.
+     *
+     * The logger and its level are read as instance variables, and the level
+     * is only interpreted again when either of them is replaced (by the
+     * driver module's logger= or DataObjects::Logger#level=), so that no Ruby
+     * methods are called per statement while logging is off. Loggers other
+     * than DataObjects::Logger are asked for their level every time.
+     *
+     * @return
+     */
+    boolean isDebugEnabled() {
+        Ruby runtime = getRuntime();
+        if (driverModule == null) {
+            driverModule = (RubyModule) runtime.getModule(
+                    DATA_OBJECTS_MODULE_NAME).getConstant(driver.getModuleName());
+        }
+        IRubyObject logger = driverModule.getInstanceVariables()
+                .fastGetInstanceVariable("@logger");
+        if (logger == null || logger.isNil()) {
+            return false;
+        }
+        if (logger != cachedLogger) {
+            cachedLogger = logger;
+            cachedLevel = null;
+            dataObjectsLogger = runtime.getModule(DATA_OBJECTS_MODULE_NAME)
+                    .getClass("Logger").isInstance(logger);
+        }
+        if (!dataObjectsLogger) {
+            return RubyNumeric.fix2int(api.callMethod(logger, "level")) == 0;
+        }
+        IRubyObject level = logger.getInstanceVariables()
+                .fastGetInstanceVariable("@level");
+        if (level != cachedLevel) {
+            cachedLevel = level;
+            debugEnabled = level instanceof RubyFixnum
+                    && ((RubyFixnum) level).getLongValue() == 0;
+        }
+        return debugEnabled;
+    }
+
+    /**
+     * @return the driver module's logger, as seen by the last call to
+     *         {@link #isDebugEnabled()}
+     */
+    IRubyObject getLogger() {
+        return cachedLogger;
+    }
+
     // -------------------------------------------------- PRIVATE HELPER METHODS
+    private static QueryTimings getQueryTimings(RubyClass klass) {
+        // Ruby subclasses of the driver's Connection class share its timings
+        for (RubyClass c = klass; c != null; c = c.getSuperClass()) {
+            IRubyObject timings = c.getInstanceVariable(QUERY_TIMINGS_IVAR);
+            if (timings != null && !timings.isNil()) {
+                return (QueryTimings) JavaEmbedUtils.rubyToJava(timings);
+            }
+        }
+        return null;
+    }
+
     private IRubyObject wrappedConnection(final java.sql.Connection c) {
         return Java.java_to_ruby(this, JavaObject.wrap(this.getRuntime(), c),
                 Block.NULL_BLOCK);
     }
 
-    private static java.sql.Connection getConnection(final IRubyObject recv) {
-        return (java.sql.Connection) recv.dataGetStruct();
-    }
 
     /**
      * Convert a query string (e.g.
@@ -0,0 +1,129 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.javasupport.JavaEmbedUtils;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.drivers.ParameterBinders;
+
+/**
+ * The Ruby classes of a driver, defined once per runtime when the driver is
+ * loaded.
+ */
+public final class DriverClasses {
+
+    static final String IVAR_NAME = "@__classes";
+
+    private final RubyClass commandClass;
+    private final RubyClass connectionClass;
+    private final RubyClass resultClass;
+    private final RubyClass readerClass;
+    private final RubyClass lazyRowClass;
+    private final RubyClass lobClass;
+    private final RubyClass columnClass;
+    private final RubyClass transactionClass;
+    private final ParameterBinders parameterBinders;
+
+    private DriverClasses(RubyClass commandClass, RubyClass connectionClass,
+            RubyClass resultClass, RubyClass readerClass,
+            RubyClass lazyRowClass, RubyClass lobClass, RubyClass columnClass,
+            RubyClass transactionClass, ParameterBinders parameterBinders) {
+        this.commandClass = commandClass;
+        this.connectionClass = connectionClass;
+        this.resultClass = resultClass;
+        this.readerClass = readerClass;
+        this.lazyRowClass = lazyRowClass;
+        this.lobClass = lobClass;
+        this.columnClass = columnClass;
+        this.transactionClass = transactionClass;
+        this.parameterBinders = parameterBinders;
+    }
+
+    /**
+     * Define the driver's classes in the runtime, and register them with the
+     * driver's Command class.
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static DriverClasses define(final Ruby runtime,
+            final DriverDefinition driver) {
+        DriverClasses classes = new DriverClasses(
+                Command.createCommandClass(runtime, driver),
+                Connection.createConnectionClass(runtime, driver),
+                Result.createResultClass(runtime, driver),
+                Reader.createReaderClass(runtime, driver),
+                LazyRow.createLazyRowClass(runtime, driver),
+                Lob.createLobClass(runtime, driver),
+                Column.createColumnClass(runtime, driver),
+                Transaction.createTransactionClass(runtime, driver),
+                driver.newParameterBinders());
+        classes.commandClass.setInstanceVariable(IVAR_NAME,
+                JavaEmbedUtils.javaToRuby(runtime, classes));
+        return classes;
+    }
+
+    /**
+     * The classes of a driver loaded in the runtime.
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static DriverClasses forDriver(final Ruby runtime,
+            final DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+        RubyClass commandClass = (RubyClass) driverModule
+                .getConstant(Command.RUBY_CLASS_NAME);
+        return (DriverClasses) JavaEmbedUtils.rubyToJava(commandClass
+                .getInstanceVariable(IVAR_NAME));
+    }
+
+    public RubyClass getCommandClass() {
+        return commandClass;
+    }
+
+    public RubyClass getConnectionClass() {
+        return connectionClass;
+    }
+
+    public RubyClass getResultClass() {
+        return resultClass;
+    }
+
+    public RubyClass getReaderClass() {
+        return readerClass;
+    }
+
+    public RubyClass getLazyRowClass() {
+        return lazyRowClass;
+    }
+
+    public RubyClass getLobClass() {
+        return lobClass;
+    }
+
+    public RubyClass getColumnClass() {
+        return columnClass;
+    }
+
+    public RubyClass getTransactionClass() {
+        return transactionClass;
+    }
+
+    /**
+     * @return the binders of the driver's PreparedStatement parameters in
+     *         this runtime
+     */
+    public ParameterBinders getParameterBinders() {
+        return parameterBinders;
+    }
+
+}
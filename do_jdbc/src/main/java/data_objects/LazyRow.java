@@ -0,0 +1,150 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * LazyRow Class
+ *
+ * A row whose values are only typecast when they are first read.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "LazyRow", include = "Enumerable")
+public class LazyRow extends RubyObject {
+
+    public final static String RUBY_CLASS_NAME = "LazyRow";
+
+    public static RubyClass createLazyRowClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+        RubyClass rowClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                runtime.getObject(), ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+        rowClass.includeModule(runtime.getEnumerable());
+        rowClass.defineAnnotatedMethods(LazyRow.class);
+        return rowClass;
+    }
+
+    private final Reader reader;
+    // the 1-based number of the row in the reader's result set
+    private final int rowNumber;
+    // the values typecast so far, null for those not read yet
+    private final IRubyObject[] values;
+
+    LazyRow(Ruby runtime, RubyClass klass, Reader reader, int rowNumber,
+            int columnCount) {
+        super(runtime, klass);
+        this.reader = reader;
+        this.rowNumber = rowNumber;
+        this.values = new IRubyObject[columnCount];
+    }
+
+    // -------------------------------------------------- DATAOBJECTS PUBLIC API
+
+    /**
+     * Like Array#[]: a single Integer index reads just that value, any other
+     * arguments (a start and length, or a Range) are handed to the Array of
+     * all values of the row.
+     *
+     * @param args
+     * @return
+     */
+    @JRubyMethod(name = "[]", required = 1, optional = 1)
+    public IRubyObject aref(IRubyObject[] args) {
+        if (args.length == 1 && args[0] instanceof RubyFixnum) {
+            return at(args[0]);
+        }
+        if (args.length == 1) {
+            return to_a().aref(args[0]);
+        }
+        return to_a().aref(args[0], args[1]);
+    }
+
+    @JRubyMethod(required = 1)
+    public IRubyObject at(IRubyObject index) {
+        long i = RubyNumeric.num2long(index);
+        if (i < 0) {
+            i += values.length;
+        }
+        if (i < 0 || i >= values.length) {
+            return getRuntime().getNil();
+        }
+        return get((int) i);
+    }
+
+    @JRubyMethod(name = { "size", "length" })
+    public IRubyObject size() {
+        return getRuntime().newFixnum(values.length);
+    }
+
+    @JRubyMethod
+    public IRubyObject each(Block block) {
+        for (int i = 0; i < values.length; i++) {
+            block.yield(getRuntime().getCurrentContext(), get(i));
+        }
+        return this;
+    }
+
+    /**
+     * Typecasts all values of the row.
+     *
+     * @return a new Array of the values
+     */
+    @JRubyMethod(name = { "to_a", "to_ary", "entries" })
+    public RubyArray to_a() {
+        IRubyObject[] copy = new IRubyObject[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = get(i);
+        }
+        return RubyArray.newArrayNoCopy(getRuntime(), copy);
+    }
+
+    @JRubyMethod(name = "==", required = 1)
+    public IRubyObject op_equal(IRubyObject other) {
+        if (other instanceof LazyRow) {
+            other = ((LazyRow) other).to_a();
+        }
+        return to_a().op_equal(getRuntime().getCurrentContext(), other);
+    }
+
+    @JRubyMethod
+    public IRubyObject inspect() {
+        return to_a().inspect();
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    /**
+     * Typecast the values not read yet, while the reader is still on the row.
+     */
+    void typecastAll() {
+        for (int i = 0; i < values.length; i++) {
+            get(i);
+        }
+    }
+
+    private IRubyObject get(int i) {
+        IRubyObject value = values[i];
+        if (value == null) {
+            value = reader.readValue(rowNumber, i);
+            values[i] = value;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,289 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
+
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * Lob Class
+ *
+ * A BLOB or CLOB value, streamed on demand while the reader is on its row.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "Lob", include = "Enumerable")
+public class Lob extends RubyObject {
+
+    public final static String RUBY_CLASS_NAME = "Lob";
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static RubyClass createLobClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+        RubyClass lobClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                runtime.getObject(), ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+        lobClass.includeModule(runtime.getEnumerable());
+        lobClass.defineAnnotatedMethods(Lob.class);
+        return lobClass;
+    }
+
+    private final DriverDefinition driver;
+    private final Reader reader;
+    // the 1-based number of the row in the reader's result set
+    private final int rowNumber;
+    // one of blob and clob is set
+    private final Blob blob;
+    private final Clob clob;
+    // the stream being read, opened on the first read
+    private InputStream binaryStream;
+    private java.io.Reader characterStream;
+    private boolean closed;
+
+    Lob(Ruby runtime, RubyClass klass, DriverDefinition driver, Reader reader,
+            int rowNumber, Blob blob, Clob clob) {
+        super(runtime, klass);
+        this.driver = driver;
+        this.reader = reader;
+        this.rowNumber = rowNumber;
+        this.blob = blob;
+        this.clob = clob;
+    }
+
+    // -------------------------------------------------- DATAOBJECTS PUBLIC API
+
+    /**
+     * The length of the value, in bytes for a BLOB and characters for a
+     * CLOB.
+     *
+     * @return
+     */
+    @JRubyMethod(name = { "size", "length" })
+    public IRubyObject size() {
+        checkReadable();
+        try {
+            long length = (blob != null) ? blob.length() : clob.length();
+            return getRuntime().newFixnum(length);
+        } catch (SQLException sqe) {
+            throw driver.newDriverError(getRuntime(), sqe);
+        }
+    }
+
+    /**
+     * Whether the value is a CLOB, which is read as text, rather than a
+     * BLOB.
+     *
+     * @return
+     */
+    @JRubyMethod(name = "text?")
+    public IRubyObject text_p() {
+        return getRuntime().newBoolean(clob != null);
+    }
+
+    /**
+     * Like IO#read: read the rest of the value, or up to length bytes (or
+     * characters of a CLOB) of it, returning nil at the end.
+     *
+     * @param args
+     * @return
+     */
+    @JRubyMethod(optional = 1)
+    public IRubyObject read(IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        if (args.length == 0 || args[0].isNil()) {
+            ByteList bytes = new ByteList(CHUNK_SIZE);
+            while (readChunk(bytes, CHUNK_SIZE)) {
+            }
+            return newString(bytes);
+        }
+        long length = RubyNumeric.num2long(args[0]);
+        if (length < 0) {
+            throw runtime.newArgumentError("negative length " + length + " given");
+        }
+        ByteList bytes = new ByteList((int) Math.min(length, CHUNK_SIZE));
+        long remaining = length;
+        while (remaining > 0) {
+            int chunk = (int) Math.min(remaining, CHUNK_SIZE);
+            int before = bytes.length();
+            if (!readChunk(bytes, chunk)) {
+                break;
+            }
+            remaining -= (clob != null) ? chunk : bytes.length() - before;
+        }
+        if (length > 0 && bytes.length() == 0) {
+            return runtime.getNil();
+        }
+        return newString(bytes);
+    }
+
+    /**
+     * Yield the value in Strings of up to chunk_size bytes (or characters of
+     * a CLOB), 8192 by default.
+     *
+     * @param args
+     * @param block
+     * @return
+     */
+    @JRubyMethod(optional = 1, frame = true)
+    public IRubyObject each(IRubyObject[] args, Block block) {
+        Ruby runtime = getRuntime();
+        int chunkSize = (args.length == 0 || args[0].isNil()) ? CHUNK_SIZE
+                : RubyNumeric.fix2int(args[0]);
+        if (chunkSize < 1) {
+            throw runtime.newArgumentError("chunk size must be positive, got " + chunkSize);
+        }
+        while (true) {
+            ByteList bytes = new ByteList(chunkSize);
+            if (!readChunk(bytes, chunkSize)) {
+                return this;
+            }
+            block.yield(runtime.getCurrentContext(), newString(bytes));
+        }
+    }
+
+    /**
+     * Go back to the start of the value.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject rewind() {
+        checkReadable();
+        closeStreams();
+        return getRuntime().newFixnum(0);
+    }
+
+    @JRubyMethod
+    public IRubyObject close() {
+        closeStreams();
+        closed = true;
+        return getRuntime().getNil();
+    }
+
+    @JRubyMethod(name = "closed?")
+    public IRubyObject closed_p() {
+        return getRuntime().newBoolean(closed);
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    /**
+     * Append up to length bytes (or characters of a CLOB) of the value to
+     * bytes.
+     *
+     * @return false at the end of the value
+     */
+    private boolean readChunk(ByteList bytes, int length) {
+        checkReadable();
+        try {
+            if (blob != null) {
+                if (binaryStream == null) {
+                    binaryStream = blob.getBinaryStream();
+                }
+                if (bytes.bytes.length - bytes.begin - bytes.realSize < length) {
+                    bytes.ensure(bytes.realSize + length);
+                }
+                int n = binaryStream.read(bytes.bytes, bytes.begin
+                        + bytes.realSize, length);
+                if (n == -1) {
+                    return false;
+                }
+                bytes.realSize += n;
+                return true;
+            }
+            if (characterStream == null) {
+                characterStream = clob.getCharacterStream();
+            }
+            char[] chars = new char[length];
+            int n = 0;
+            while (n < length) {
+                int read = characterStream.read(chars, n, length - n);
+                if (read == -1) {
+                    break;
+                }
+                n += read;
+            }
+            if (n == 0) {
+                return false;
+            }
+            // split surrogate pairs are encoded together with the next chunk
+            if (Character.isHighSurrogate(chars[n - 1])) {
+                int low = characterStream.read();
+                if (low != -1) {
+                    chars = copyOf(chars, n + 1);
+                    chars[n++] = (char) low;
+                }
+            }
+            ByteBuffer encoded = UTF8.encode(CharBuffer.wrap(chars, 0, n));
+            bytes.append(encoded, encoded.remaining());
+            return true;
+        } catch (SQLException sqe) {
+            throw driver.newDriverError(getRuntime(), sqe);
+        } catch (IOException ioe) {
+            throw getRuntime().newIOErrorFromException(ioe);
+        }
+    }
+
+    private void checkReadable() {
+        if (closed) {
+            throw getRuntime().newIOError("closed stream");
+        }
+        if (!reader.isOnRow(rowNumber)) {
+            closeStreams();
+            throw getRuntime().newIOError(
+                    "Reader has moved past the row, and the LOB can no longer be read");
+        }
+    }
+
+    private void closeStreams() {
+        try {
+            if (binaryStream != null) {
+                binaryStream.close();
+            }
+            if (characterStream != null) {
+                characterStream.close();
+            }
+        } catch (IOException ignore) {
+        } finally {
+            binaryStream = null;
+            characterStream = null;
+        }
+    }
+
+    private RubyString newString(ByteList bytes) {
+        RubyString str = RubyString.newString(getRuntime(), bytes);
+        str.setTaint(true);
+        return str;
+    }
+
+    private static char[] copyOf(char[] chars, int length) {
+        char[] copy = new char[length];
+        System.arraycopy(chars, 0, copy, 0, Math.min(chars.length, length));
+        return copy;
+    }
+
+}
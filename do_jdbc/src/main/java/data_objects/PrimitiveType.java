@@ -0,0 +1,16 @@
+package data_objects;
+
+/**
+ * Enum representing the Java primitive types that the columns of a columnar
+ * result can hold their values in.
+ */
+public enum PrimitiveType {
+
+    /** read with ResultSet#getLong, and cast to Fixnum or Bignum */
+    LONG,
+    /** read with ResultSet#getDouble, and cast to Float */
+    DOUBLE,
+    /** read with ResultSet#getBoolean, and cast to true or false */
+    BOOLEAN
+
+}
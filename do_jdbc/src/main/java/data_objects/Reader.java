@@ -3,6 +3,7 @@ package data_objects;
 import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
 
 import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -12,14 +13,19 @@ import java.util.logging.Logger;
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyClass;
-import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
+import org.jruby.RubyModule;
+import org.jruby.RubyString;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.builtin.IRubyObject;
 
 import data_objects.drivers.DriverDefinition;
+import data_objects.util.JDBCUtil;
+import data_objects.util.QueryTimings;
+import data_objects.util.StatementCache;
 
 /**
  * Reader Class
@@ -31,6 +37,7 @@ import data_objects.drivers.DriverDefinition;
 public class Reader extends DORubyObject {
 
     public final static String RUBY_CLASS_NAME = "Reader";
+    private final static String RESULT_TOO_LARGE_ERROR = "ResultTooLargeError";
 
     private final static ObjectAllocator READER_ALLOCATOR = new ObjectAllocator() {
 
@@ -52,38 +59,205 @@ public class Reader extends DORubyObject {
         return readerClass;
     }
 
+    private PreparedStatement statement;
+    private StatementCache statementCache;
+    private StatementCache.Key statementKey;
+
+    // where to record fetch and conversion times, if query timings are enabled
+    private QueryTimings.Query queryTiming;
+    // the connection whose autocommit was switched off to stream the result,
+    // and is switched back on when the reader is closed
+    private java.sql.Connection autoCommitConnection;
+
+    // whether the reader has been handed a result and not been closed since
+    private boolean opened;
+    private ResultSet resultSet;
+    private RubyArray fields;
+    private RowDecoder rowDecoder;
+    // whether the cursor is on a row
+    private boolean state;
+    private IRubyObject values;
+    // the LazyRow class if rows are typecast lazily, otherwise null
+    private RubyClass lazyRowClass;
+    // the 1-based number of the row the cursor is on
+    private int rowNumber;
+    // reads the rows in the background if prefetching, otherwise null
+    private RowPrefetcher prefetcher;
+    // the most rows to read, or 0 for no limit
+    private int maxRows;
+    // the most bytes of values to read, or 0 for no limit
+    private long maxBytes;
+    private long bytesRead;
+
     private Reader(Ruby runtime, RubyClass klass) {
         super(runtime, klass);
     }
 
+    /**
+     * Hand the statement the result set belongs to over to the reader; it is
+     * released to the statement cache when the reader is closed.
+     *
+     * @param ps
+     * @param cache
+     * @param key
+     */
+    void setStatement(PreparedStatement ps, StatementCache cache,
+            StatementCache.Key key) {
+        this.statement = ps;
+        this.statementCache = cache;
+        this.statementKey = key;
+    }
+
+    void setQueryTiming(QueryTimings.Query queryTiming) {
+        this.queryTiming = queryTiming;
+    }
+
+    /**
+     * Hand out rows as LazyRows, which typecast each value when it is first
+     * read, instead of Arrays.
+     *
+     * A forward-only result is still released after its last row, as its
+     * LazyRows can't move the cursor back anyway; a scrollable one stays
+     * open until the reader is closed, so that earlier rows can be read.
+     *
+     * @param lazyRowClass
+     */
+    void setLazyRowClass(RubyClass lazyRowClass) {
+        this.lazyRowClass = lazyRowClass;
+    }
+
+    /**
+     * Read the rows of the result on a background thread, chunkSize rows at
+     * a time, while the rows read before are consumed. Only the background
+     * thread moves the result set's cursor from here on, until the reader is
+     * closed. The rows are typecast on the Ruby thread, as they are read.
+     *
+     * @param chunkSize
+     * @throws SQLException
+     */
+    void startPrefetch(int chunkSize) throws SQLException {
+        if (resultSet != null && rowDecoder != null) {
+            prefetcher = RowPrefetcher.start(getRuntime(), resultSet,
+                    rowDecoder, queryTiming, chunkSize);
+        }
+    }
+
+    /**
+     * Stop at maxRows rows, even if the driver returns more: the limit is
+     * passed to the driver with Statement#setMaxRows, which some drivers
+     * (SQLite's, for one) overshoot by a row.
+     *
+     * @param maxRows
+     */
+    void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Raise a DataObjects::ResultTooLargeError, and release the result, once
+     * the values read add up to more than maxBytes; see countBytes.
+     *
+     * @param maxBytes
+     */
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    void setAutoCommitConnection(java.sql.Connection conn) {
+        this.autoCommitConnection = conn;
+    }
+
+    /**
+     * Switch autocommit back on, if it was switched off to stream the result.
+     * This ends the transaction the result was streamed in.
+     */
+    void restoreAutoCommit() {
+        java.sql.Connection conn = autoCommitConnection;
+        if (conn == null) {
+            return;
+        }
+        autoCommitConnection = null;
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException ex) {
+            Logger.getLogger(Reader.class.getName()).log(Level.SEVERE,
+                    null, ex);
+        }
+    }
+
+    /**
+     * Hand the result of a query over to the reader.
+     *
+     * @param rs the result set, or null if the query returned no result
+     * @param fields the column names
+     * @param rowDecoder decoder for the rows of rs, or null if rs is null
+     */
+    void setResult(ResultSet rs, RubyArray fields, RowDecoder rowDecoder) {
+        this.opened = true;
+        this.resultSet = rs;
+        this.fields = fields;
+        this.rowDecoder = rowDecoder;
+        if (rowDecoder != null) {
+            rowDecoder.setReader(this);
+        }
+    }
+
     // -------------------------------------------------- DATAOBJECTS PUBLIC API
 
     // default initialize
     @JRubyMethod
     public IRubyObject close() {
         Ruby runtime = getRuntime();
-        IRubyObject reader = api.getInstanceVariable(this, "@reader");
 
-        if (!(reader == null || reader.isNil())) {
+        if (opened) {
+            releaseResult();
+            opened = false;
+            return runtime.getTrue();
+        } else {
+            return runtime.getFalse();
+        }
+    }
 
-            ResultSet rs = (ResultSet) reader.dataGetStruct();
-            try {
-                Statement st = rs.getStatement();
+    /**
+     * Close the result set and release its statement, once the last row has
+     * been read or the reader is closed.
+     */
+    private void releaseResult() {
+        boolean reusable = true;
+        if (prefetcher != null) {
+            // wait for the background thread to let go of the result set
+            if (!prefetcher.close()) {
+                // it may still be using the statement, which can't be cached
+                Logger.getLogger(Reader.class.getName()).log(Level.WARNING,
+                        "Prefetching did not stop in time, closing the statement");
+                reusable = false;
+            }
+            prefetcher = null;
+        }
+
+        ResultSet rs = resultSet;
+        try {
+            Statement st = (rs != null) ? rs.getStatement() : null;
+            if (rs != null) {
                 rs.close();
                 rs = null;
+            }
+            if (statement != null && reusable) {
+                Command.releaseStatement(statementCache, statementKey, statement);
+            } else if (statement != null) {
+                statement.close();
+            } else if (st != null) {
                 st.close();
-                st = null;
-            } catch (SQLException ex) {
-                Logger.getLogger(Reader.class.getName()).log(Level.SEVERE,
-                        null, ex);
-            } finally {
-                reader = api.setInstanceVariable(this, "@reader", runtime
-                        .getNil());
             }
-
-            return runtime.getTrue();
-        } else {
-            return runtime.getFalse();
+            st = null;
+        } catch (SQLException ex) {
+            Logger.getLogger(Reader.class.getName()).log(Level.SEVERE,
+                    null, ex);
+            JDBCUtil.close(statement);
+        } finally {
+            setStatement(null, null, null);
+            restoreAutoCommit();
+            resultSet = null;
         }
     }
 
@@ -97,91 +271,251 @@ public class Reader extends DORubyObject {
     public IRubyObject next() {
         Ruby runtime = getRuntime();
         try {
-            IRubyObject reader = api.getInstanceVariable(this, "@reader");
-            ResultSet rs = (ResultSet) reader.dataGetStruct();
+            ResultSet rs = resultSet;
 
             if (rs == null) {
                 return runtime.getFalse();
             }
 
-            IRubyObject field_types = api.getInstanceVariable(this,
-                    "@field_types");
-            IRubyObject field_count = api.getInstanceVariable(this,
-                    "@field_count");
-            RubyArray row = runtime.newArray();
-            IRubyObject value;
-            int fieldTypesCount = field_types.convertToArray().getLength();
-
             try {
-                boolean hasNext = rs.next();
-                api.setInstanceVariable(this, "@state", runtime
-                        .newBoolean(hasNext));
-
-                if (!hasNext) {
-                    return runtime.getFalse();
-                }
-
-                for (int i = 0; i < RubyNumeric.fix2int(field_count
-                        .convertToInteger()); i++) {
-                    int col = i + 1;
-                    RubyType type;
-
-                    if (fieldTypesCount > 0) {
-                        // use the specified type
-                        String typeName = field_types.convertToArray().get(i)
-                                .toString();
-                        type = RubyType.getRubyType(typeName.toUpperCase());
-                    } else {
-                        // infer the type
-
-                        // assume the mapping from jdbc type to ruby type to be
-                        // complete
-                        type = driver.jdbcTypeToRubyType(rs.getMetaData().getColumnType(col),
-                            rs.getMetaData().getPrecision(col), rs.getMetaData().getScale(col));
-
-                    }
-
-                    if (type == null)
-                        throw runtime
-                                .newRuntimeError("Problem automatically mapping JDBC Type to Ruby Type");
-
-                    value = driver.getTypecastResultSetValue(runtime, rs, col,
-                            type);
-                    row.push_m(new IRubyObject[] { value });
-                }
+                return runtime.newBoolean(fetchRow(runtime, rs));
             } catch (SQLException sqe) {
                 throw driver.newDriverError(runtime, sqe);
             } catch (IOException ioe) {
                 throw driver.newDriverError(runtime, ioe.getLocalizedMessage());
             }
-
-            api.setInstanceVariable(this, "@values", row);
-            return runtime.getTrue();
+        } catch (RaiseException re) {
+            throw re;
         } catch (RuntimeException e) {
             e.printStackTrace();
             throw driver.newDriverError(runtime, e.getMessage());
         }
     }
 
+    /**
+     * Reads up to count rows in one go.
+     *
+     * @param count
+     * @return an Array of the rows' values Arrays, empty if there are no
+     *         further rows
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject fetch_rows(IRubyObject count) {
+        Ruby runtime = getRuntime();
+        int n = RubyNumeric.fix2int(count);
+        if (n < 1) {
+            throw runtime.newArgumentError("count must be positive, got " + n);
+        }
+        return fetchRows(runtime, n);
+    }
+
+    /**
+     * Reads all remaining rows.
+     *
+     * @return an Array of the rows' values Arrays
+     */
+    @JRubyMethod
+    public RubyArray to_a() {
+        return fetchRows(getRuntime(), Integer.MAX_VALUE);
+    }
+
+    private RubyArray fetchRows(Ruby runtime, int count) {
+        ResultSet rs = resultSet;
+        RubyArray rows = runtime.newArray();
+        if (rs == null) {
+            return rows;
+        }
+        try {
+            // the LazyRows of a forward-only result can't be read once the
+            // cursor has moved past them, so they are typecast before
+            boolean typecast = lazyRowClass != null
+                    && rs.getType() == ResultSet.TYPE_FORWARD_ONLY;
+            for (int i = 0; i < count && fetchRow(runtime, rs); i++) {
+                if (typecast) {
+                    ((LazyRow) values).typecastAll();
+                }
+                rows.append(values);
+            }
+        } catch (SQLException sqe) {
+            throw driver.newDriverError(runtime, sqe);
+        } catch (IOException ioe) {
+            throw driver.newDriverError(runtime, ioe.getLocalizedMessage());
+        } catch (RaiseException re) {
+            throw re;
+        } catch (RuntimeException e) {
+            // e.g. a value that could not be parsed
+            throw driver.newDriverError(runtime, e.getMessage());
+        }
+        return rows;
+    }
+
+    /**
+     * Move the cursor to the next row and decode it into values.
+     *
+     * @return whether there was a next row
+     */
+    private boolean fetchRow(Ruby runtime, ResultSet rs) throws SQLException,
+            IOException {
+        boolean limited = maxRows > 0 && rowNumber >= maxRows;
+        if (prefetcher != null) {
+            RubyArray row = limited ? null : prefetcher.next();
+            state = (row != null);
+            if (row == null) {
+                releaseResult();
+                return false;
+            }
+            rowNumber++;
+            values = row;
+            countBytes(row);
+            return true;
+        }
+
+        boolean hasNext;
+        long convertStart = 0;
+        if (queryTiming != null) {
+            long fetchStart = System.nanoTime();
+            hasNext = !limited && rs.next();
+            convertStart = System.nanoTime();
+            queryTiming.record(QueryTimings.Phase.FETCH, convertStart - fetchStart);
+        } else {
+            hasNext = !limited && rs.next();
+        }
+        state = hasNext;
+
+        if (!hasNext) {
+            // LazyRows of a scrollable result may still have to move the
+            // cursor back to their row
+            if (lazyRowClass == null
+                    || rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                releaseResult();
+            }
+            return false;
+        }
+        rowNumber++;
+
+        if (lazyRowClass != null) {
+            values = new LazyRow(runtime, lazyRowClass, this, rowNumber,
+                    rowDecoder.getColumnCount());
+        } else {
+            RubyArray row = rowDecoder.decode(runtime, rs);
+            values = row;
+            countBytes(row);
+        }
+        if (queryTiming != null) {
+            queryTiming.record(QueryTimings.Phase.CONVERT, System.nanoTime() - convertStart);
+        }
+        return true;
+    }
+
+    /**
+     * Typecast a value of a LazyRow of this reader, moving the cursor back to
+     * the row and forward again if the reader has moved past it.
+     *
+     * @param row the 1-based number of the row
+     * @param i the 0-based index of the column
+     * @return
+     */
+    IRubyObject readValue(int row, int i) {
+        Ruby runtime = getRuntime();
+        ResultSet rs = resultSet;
+        if (rs == null) {
+            throw driver.newDriverError(runtime,
+                    "Reader is closed, and the value was not read before");
+        }
+        try {
+            if (state && row == rowNumber) {
+                return countBytes(rowDecoder.decode(runtime, rs, row, i));
+            }
+            if (rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                throw driver.newDriverError(runtime,
+                        "Reader has moved past the row, and the value was not read before");
+            }
+            rs.absolute(row);
+            try {
+                return countBytes(rowDecoder.decode(runtime, rs, row, i));
+            } finally {
+                if (state) {
+                    rs.absolute(rowNumber);
+                } else {
+                    rs.afterLast();
+                }
+            }
+        } catch (SQLException sqe) {
+            throw driver.newDriverError(runtime, sqe);
+        } catch (IOException ioe) {
+            throw driver.newDriverError(runtime, ioe.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @param row the 1-based number of a row
+     * @return whether the cursor is on the row, and the result is open
+     */
+    boolean isOnRow(int row) {
+        return state && resultSet != null && row == rowNumber;
+    }
+
+    /**
+     * @return the 1-based number of the row the cursor is on
+     */
+    int getRowNumber() {
+        return rowNumber;
+    }
+
+    private void countBytes(RubyArray row) {
+        if (maxBytes > 0) {
+            for (int i = 0; i < row.getLength(); i++) {
+                countBytes(row.eltInternal(i));
+            }
+        }
+    }
+
+    /**
+     * Add the size of a value read to the bytes read: the length of Strings
+     * (and ByteArrays) in bytes, and 8 bytes for any other value but nil.
+     *
+     * @param value
+     * @return value
+     */
+    private IRubyObject countBytes(IRubyObject value) {
+        if (maxBytes == 0) {
+            return value;
+        }
+        if (value instanceof RubyString) {
+            bytesRead += ((RubyString) value).getByteList().length();
+        } else if (!value.isNil()) {
+            bytesRead += 8;
+        }
+        if (bytesRead > maxBytes) {
+            Ruby runtime = getRuntime();
+            releaseResult();
+            state = false;
+            RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+            throw new RaiseException(runtime, doModule.getClass(RESULT_TOO_LARGE_ERROR),
+                    "Result exceeds max_bytes (" + maxBytes + " bytes) at row "
+                    + rowNumber, true);
+        }
+        return value;
+    }
+
     @JRubyMethod
     public IRubyObject values() {
         Ruby runtime = getRuntime();
-        IRubyObject state = api.getInstanceVariable(this, "@state");
 
-        if (state == null || state.isNil() || !state.isTrue()) {
+        if (!state) {
             throw driver.newDriverError(runtime, "Reader is not initialized");
         }
-        IRubyObject values = api.getInstanceVariable(this, "@values");
         return (values != null) ? values : runtime.getNil();
     }
 
     @JRubyMethod
     public IRubyObject fields() {
-        return api.getInstanceVariable(this, "@fields");
+        return (fields != null) ? fields : getRuntime().getNil();
     }
 
     @JRubyMethod
     public IRubyObject field_count() {
-        return api.getInstanceVariable(this, "@field_count");
+        return getRuntime().newFixnum((rowDecoder != null) ? rowDecoder
+                .getColumnCount() : 0);
     }
 }
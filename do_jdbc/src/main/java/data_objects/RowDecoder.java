@@ -0,0 +1,584 @@
+package data_objects;
+
+import java.io.IOException;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyFloat;
+import org.jruby.RubyNumeric;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.drivers.ValueReader;
+
+/**
+ * Decodes the rows of a query's result set into Ruby Arrays.
+ *
+ * Each column is read by a ColumnReader of its own, picked once for the
+ * column's Ruby and JDBC types, which calls just the getter and Ruby
+ * constructor of those types. The readers of a result shape, that is, of a
+ * sequence of column types, are kept as a plan shared by the queries of that
+ * shape.
+ */
+final class RowDecoder {
+
+    private static final int MAX_DICTIONARY_SIZE = 1024;
+
+    // beyond this many shapes, plans are built for each query, uncached
+    private static final int MAX_SHAPES = 256;
+
+    // the readers of the columns of each result shape, see shapeOf
+    private static final Map<String, ColumnReader[]> PLANS = new ConcurrentHashMap<String, ColumnReader[]>();
+
+    private final DriverDefinition driver;
+    private final int[] jdbcTypes;
+    private final RubyType[] types;
+    private final ColumnReader[] columns;
+    // the values read so far of the columns that share repeated values, by
+    // the value they were typecast from, or null for the other columns
+    private final Map<Object, IRubyObject>[] dictionaries;
+    // the Lob class if LOBs are streamed, otherwise null
+    private final RubyClass lobClass;
+    // the reader the rows are decoded for, which Lobs are read through
+    private Reader reader;
+
+    private RowDecoder(DriverDefinition driver, int[] jdbcTypes,
+            RubyType[] types, ColumnReader[] columns,
+            Map<Object, IRubyObject>[] dictionaries, RubyClass lobClass) {
+        this.driver = driver;
+        this.jdbcTypes = jdbcTypes;
+        this.types = types;
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+        this.lobClass = lobClass;
+    }
+
+    /**
+     * @param driver
+     * @param metaData
+     * @param columnCount the number of columns to decode, which may be less
+     *        than the result set's column count
+     * @param fieldTypes the Ruby classes given to Command#set_types, or an
+     *        empty Array to infer the types from the JDBC types
+     * @param internStrings whether to share the (frozen) Strings of repeated
+     *        values of CHAR and VARCHAR columns between rows
+     * @param utf8 whether the connection reads text in UTF-8, see
+     *        DriverDefinition#readsStringBytes
+     * @param lobClass the Lob class to decode BLOB and CLOB columns into,
+     *        or null to read them whole
+     * @return
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    static RowDecoder create(DriverDefinition driver,
+            ResultSetMetaData metaData, int columnCount, RubyArray fieldTypes,
+            boolean internStrings, boolean utf8, RubyClass lobClass)
+            throws SQLException {
+        boolean inferTypes = fieldTypes.getLength() == 0;
+        int[] jdbcTypes = new int[columnCount];
+        RubyType[] types = new RubyType[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            int col = i + 1;
+            jdbcTypes[i] = metaData.getColumnType(col);
+            if (inferTypes) {
+                // assume the mapping from jdbc type to ruby type to be
+                // complete
+                types[i] = driver.jdbcTypeToRubyType(jdbcTypes[i], metaData
+                        .getPrecision(col), metaData.getScale(col));
+            } else {
+                // use the specified type
+                types[i] = RubyType.getRubyType(fieldTypes.eltInternal(i).toString());
+            }
+        }
+        boolean lobs = lobClass != null && driver.supportsJdbcLobs();
+
+        String shape = shapeOf(driver, jdbcTypes, types, internStrings, utf8,
+                lobs);
+        ColumnReader[] columns = PLANS.get(shape);
+        if (columns == null) {
+            columns = plan(driver, jdbcTypes, types, internStrings, utf8, lobs);
+            if (PLANS.size() < MAX_SHAPES) {
+                // another query may have planned the shape meanwhile, which
+                // is as good
+                PLANS.put(shape, columns);
+            }
+        }
+
+        Map<Object, IRubyObject>[] dictionaries = new Map[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            if (columns[i] instanceof DictionaryColumn) {
+                dictionaries[i] = new HashMap<Object, IRubyObject>();
+            }
+        }
+        return new RowDecoder(driver, jdbcTypes, types, columns, dictionaries,
+                lobClass);
+    }
+
+    /**
+     * Decode the row the result set's cursor is on, the reader's current row.
+     *
+     * @param runtime
+     * @param rs
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    RubyArray decode(Ruby runtime, ResultSet rs) throws SQLException,
+            IOException {
+        int row = (reader != null) ? reader.getRowNumber() : 0;
+        IRubyObject[] values = new IRubyObject[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].read(this, runtime, rs, row);
+        }
+        return RubyArray.newArrayNoCopy(runtime, values);
+    }
+
+    /**
+     * Decode one column of the row the result set's cursor is on.
+     *
+     * @param runtime
+     * @param rs
+     * @param row the 1-based number of the row, which a Lob checks the
+     *        reader is still on before it reads the value
+     * @param i the 0-based index of the column
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    IRubyObject decode(Ruby runtime, ResultSet rs, int row, int i)
+            throws SQLException, IOException {
+        return columns[i].read(this, runtime, rs, row);
+    }
+
+    /**
+     * Read the values of the row the result set's cursor is on, to be
+     * decoded later, on the Ruby thread, with decode(Ruby, Object[]). Only
+     * the result set's getters are called, as decode(Ruby, ResultSet) would.
+     *
+     * @param rs
+     * @return the values, by 0-based column index
+     * @throws SQLException
+     * @throws IOException
+     */
+    Object[] fetch(ResultSet rs) throws SQLException, IOException {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].fetch(rs);
+        }
+        return values;
+    }
+
+    /**
+     * Decode a row read with fetch.
+     *
+     * @param runtime
+     * @param fetched
+     * @return
+     */
+    RubyArray decode(Ruby runtime, Object[] fetched) {
+        IRubyObject[] values = new IRubyObject[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].convert(this, runtime, fetched[i]);
+        }
+        return RubyArray.newArrayNoCopy(runtime, values);
+    }
+
+    void setReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param i the 0-based index of a decoded column
+     * @return the column's JDBC type
+     */
+    int getJdbcType(int i) {
+        return jdbcTypes[i];
+    }
+
+    /**
+     * @param i the 0-based index of a decoded column
+     * @return the Ruby type the column's values are cast to, or null if the
+     *         JDBC type could not be mapped
+     */
+    RubyType getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * @return a key for the readers plan builds for the columns
+     */
+    private static String shapeOf(DriverDefinition driver, int[] jdbcTypes,
+            RubyType[] types, boolean internStrings, boolean utf8,
+            boolean lobs) {
+        StringBuilder shape = new StringBuilder(driver.getModuleName());
+        shape.append(internStrings ? 'i' : '-').append(utf8 ? 'u' : '-')
+                .append(lobs ? 'l' : '-');
+        for (int i = 0; i < types.length; i++) {
+            shape.append(';').append(jdbcTypes[i]).append(':').append(
+                    (types[i] != null) ? types[i].ordinal() : -1);
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Pick the reader of each column.
+     */
+    private static ColumnReader[] plan(DriverDefinition driver,
+            int[] jdbcTypes, RubyType[] types, boolean internStrings,
+            boolean utf8, boolean lobs) {
+        ColumnReader[] columns = new ColumnReader[types.length];
+        for (int i = 0; i < types.length; i++) {
+            columns[i] = newColumnReader(driver, i, jdbcTypes[i], types[i],
+                    internStrings, utf8, lobs);
+        }
+        return columns;
+    }
+
+    private static ColumnReader newColumnReader(DriverDefinition driver,
+            int i, int jdbcType, RubyType type, boolean internStrings,
+            boolean utf8, boolean lobs) {
+        if (type == null) {
+            return new UnmappedColumn(i);
+        }
+        if (lobs && ((type == RubyType.BYTE_ARRAY && jdbcType == Types.BLOB)
+                || (type == RubyType.STRING && jdbcType == Types.CLOB))) {
+            return new LobColumn(i, jdbcType == Types.BLOB);
+        }
+        ValueReader valueReader = driver.getValueReader(type, jdbcType);
+        if (type == RubyType.CLASS) {
+            // resolving the class name is costly, and the class is shared
+            // anyway
+            return new DictionaryColumn(i, valueReader, false);
+        }
+        if (internStrings && type == RubyType.STRING
+                && (jdbcType == Types.CHAR || jdbcType == Types.VARCHAR)) {
+            // not for CLOBs, whose values can't be read twice
+            return new DictionaryColumn(i, valueReader, true);
+        }
+        if (utf8 && type == RubyType.STRING
+                && driver.readsStringBytes(jdbcType)) {
+            return new ValueColumn(i, driver.getStringBytesReader());
+        }
+        // the primitive columns are read without going through the
+        // driver's typecasting
+        PrimitiveType primitiveType = driver.getPrimitiveType(type, jdbcType);
+        if (primitiveType == null) {
+            return new ValueColumn(i, valueReader);
+        }
+        switch (primitiveType) {
+        case LONG:
+            return new LongColumn(i, valueReader);
+        case DOUBLE:
+            return new DoubleColumn(i);
+        default:
+            return new BooleanColumn(i);
+        }
+    }
+
+    /**
+     * Reads the values of a column of the result set, and typecasts them.
+     *
+     * A value can be fetched, with just the result set's getters, on another
+     * thread than the one it is converted to a Ruby object on.
+     */
+    private abstract static class ColumnReader {
+
+        // the 0-based index of the column
+        final int i;
+        // the 1-based index of the column
+        final int col;
+
+        ColumnReader(int i) {
+            this.i = i;
+            this.col = i + 1;
+        }
+
+        /**
+         * Read and typecast the value of the row the result set's cursor is
+         * on, the row-th of the reader's.
+         */
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException, IOException {
+            return convert(decoder, runtime, fetch(rs));
+        }
+
+        /**
+         * Read the value of the row the result set's cursor is on, with the
+         * getter read uses.
+         *
+         * @return the value, or null for NULL
+         */
+        abstract Object fetch(ResultSet rs) throws SQLException, IOException;
+
+        /**
+         * Typecast a value read with fetch.
+         *
+         * @param value the value, or null for NULL
+         */
+        abstract IRubyObject convert(RowDecoder decoder, Ruby runtime,
+                Object value);
+
+    }
+
+    /**
+     * A column whose values are read and typecast by the driver's
+     * ValueReader.
+     */
+    private static final class ValueColumn extends ColumnReader {
+
+        private final ValueReader valueReader;
+
+        ValueColumn(int i, ValueReader valueReader) {
+            super(i);
+            this.valueReader = valueReader;
+        }
+
+        @Override
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException, IOException {
+            return valueReader.get(runtime, rs, col);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException, IOException {
+            return valueReader.read(rs, col);
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            return (value == null) ? runtime.getNil() : valueReader.typecast(
+                    runtime, value);
+        }
+    }
+
+    /**
+     * An integer column read with getLong, or by the driver's ValueReader if
+     * a value is out of the range of long.
+     */
+    private static final class LongColumn extends ColumnReader {
+
+        private final ValueReader valueReader;
+
+        LongColumn(int i, ValueReader valueReader) {
+            super(i);
+            this.valueReader = valueReader;
+        }
+
+        @Override
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException, IOException {
+            long lng;
+            try {
+                lng = rs.getLong(col);
+            } catch (SQLException sqle) {
+                // out of the range of long
+                return valueReader.get(runtime, rs, col);
+            }
+            if (rs.wasNull()) {
+                return runtime.getNil();
+            }
+            return RubyNumeric.int2fix(runtime, lng);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException, IOException {
+            long lng;
+            try {
+                lng = rs.getLong(col);
+            } catch (SQLException sqle) {
+                // out of the range of long
+                return valueReader.read(rs, col);
+            }
+            return rs.wasNull() ? null : Long.valueOf(lng);
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            if (value == null) {
+                return runtime.getNil();
+            }
+            if (value instanceof Long) {
+                return RubyNumeric.int2fix(runtime, ((Long) value).longValue());
+            }
+            return valueReader.typecast(runtime, value);
+        }
+    }
+
+    private static final class DoubleColumn extends ColumnReader {
+
+        DoubleColumn(int i) {
+            super(i);
+        }
+
+        @Override
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException {
+            double dbl = rs.getDouble(col);
+            return rs.wasNull() ? runtime.getNil() : RubyFloat.newFloat(
+                    runtime, dbl);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException {
+            double dbl = rs.getDouble(col);
+            return rs.wasNull() ? null : Double.valueOf(dbl);
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            return (value == null) ? runtime.getNil() : RubyFloat.newFloat(
+                    runtime, ((Double) value).doubleValue());
+        }
+    }
+
+    private static final class BooleanColumn extends ColumnReader {
+
+        BooleanColumn(int i) {
+            super(i);
+        }
+
+        @Override
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException {
+            boolean bool = rs.getBoolean(col);
+            return rs.wasNull() ? runtime.getNil() : runtime.newBoolean(bool);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException {
+            boolean bool = rs.getBoolean(col);
+            return rs.wasNull() ? null : Boolean.valueOf(bool);
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            return (value == null) ? runtime.getNil() : runtime
+                    .newBoolean(((Boolean) value).booleanValue());
+        }
+    }
+
+    /**
+     * A column whose repeated values are typecast once, and shared between
+     * rows, until it has had too many distinct values to be worth it.
+     */
+    private static final class DictionaryColumn extends ColumnReader {
+
+        private final ValueReader valueReader;
+        // whether the values are Strings, which are frozen to be shared
+        private final boolean freeze;
+
+        DictionaryColumn(int i, ValueReader valueReader, boolean freeze) {
+            super(i);
+            this.valueReader = valueReader;
+            this.freeze = freeze;
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException, IOException {
+            return valueReader.read(rs, col);
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object key) {
+            if (key == null) {
+                return runtime.getNil();
+            }
+            Map<Object, IRubyObject> dictionary = decoder.dictionaries[i];
+            if (dictionary == null) {
+                return valueReader.typecast(runtime, key);
+            }
+            IRubyObject value = dictionary.get(key);
+            if (value == null) {
+                value = valueReader.typecast(runtime, key);
+                if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+                    if (freeze) {
+                        // shared between rows, so they mustn't change it
+                        value.setFrozen(true);
+                    }
+                    dictionary.put(key, value);
+                } else {
+                    // too many distinct values to be worth it
+                    decoder.dictionaries[i] = null;
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A BLOB or CLOB column whose values are streamed by Lobs, while the
+     * reader is on their row.
+     */
+    private static final class LobColumn extends ColumnReader {
+
+        private final boolean blob;
+
+        LobColumn(int i, boolean blob) {
+            super(i);
+            this.blob = blob;
+        }
+
+        @Override
+        IRubyObject read(RowDecoder decoder, Ruby runtime, ResultSet rs,
+                int row) throws SQLException {
+            Blob blob = null;
+            Clob clob = null;
+            if (this.blob) {
+                blob = rs.getBlob(col);
+            } else {
+                clob = rs.getClob(col);
+            }
+            if (blob == null && clob == null) {
+                return runtime.getNil();
+            }
+            return new Lob(runtime, decoder.lobClass, decoder.driver,
+                    decoder.reader, row, blob, clob);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) throws SQLException {
+            // a Lob reads its value while the reader is on the row
+            throw new SQLException("LOBs are not read ahead");
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A column whose JDBC type has no Ruby type.
+     */
+    private static final class UnmappedColumn extends ColumnReader {
+
+        UnmappedColumn(int i) {
+            super(i);
+        }
+
+        @Override
+        Object fetch(ResultSet rs) {
+            return null;
+        }
+
+        @Override
+        IRubyObject convert(RowDecoder decoder, Ruby runtime, Object value) {
+            throw runtime.newRuntimeError("Problem automatically mapping JDBC Type to Ruby Type");
+        }
+    }
+
+}
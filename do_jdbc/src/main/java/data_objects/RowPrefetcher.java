@@ -0,0 +1,251 @@
+package data_objects;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+
+import data_objects.util.QueryTimings;
+
+/**
+ * Reads the rows of a result set on a background thread, a chunk at a time.
+ *
+ * The background thread only reads the rows' values, with the getters the
+ * RowDecoder reads them with: they are typecast to Ruby objects on the Ruby
+ * thread, as the rows are taken.
+ */
+final class RowPrefetcher implements Runnable {
+
+    private static final int BUFFERED_CHUNKS = 2;
+
+    // how often the background thread checks whether it was cancelled while
+    // it waits for the Ruby thread to take a chunk
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    // how long close waits for the background thread to let go of the
+    // result set, once the statement is cancelled
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    // marks the end of the result set in the queue
+    private static final List<Object[]> END = new ArrayList<Object[]>(0);
+
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DataObjects prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Ruby runtime;
+    private final ResultSet rs;
+    private final Statement statement;
+    private final RowDecoder rowDecoder;
+    private final QueryTimings.Query queryTiming;
+    private final int chunkSize;
+
+    private final BlockingQueue<List<Object[]>> chunks = new ArrayBlockingQueue<List<Object[]>>(BUFFERED_CHUNKS);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    // whether the background thread is in ResultSet#next
+    private volatile boolean inNext;
+    // what the background thread failed with, handed to the Ruby thread
+    // after the rows read before it
+    private volatile Throwable failure;
+
+    // the chunk the Ruby thread is consuming, or null once the end was reached
+    private Iterator<Object[]> current;
+
+    private RowPrefetcher(Ruby runtime, ResultSet rs, RowDecoder rowDecoder,
+            QueryTimings.Query queryTiming, int chunkSize)
+            throws SQLException {
+        this.runtime = runtime;
+        this.rs = rs;
+        this.statement = rs.getStatement();
+        this.rowDecoder = rowDecoder;
+        this.queryTiming = queryTiming;
+        this.chunkSize = chunkSize;
+        this.current = new ArrayList<Object[]>(0).iterator();
+    }
+
+    /**
+     * Start reading the rows of the result set in the background.
+     *
+     * @param runtime
+     * @param rs
+     * @param rowDecoder
+     * @param queryTiming where to record fetch and conversion times, or null
+     * @param chunkSize the number of rows to read at a time
+     * @return
+     * @throws SQLException
+     */
+    static RowPrefetcher start(Ruby runtime, ResultSet rs,
+            RowDecoder rowDecoder, QueryTimings.Query queryTiming,
+            int chunkSize) throws SQLException {
+        RowPrefetcher prefetcher = new RowPrefetcher(runtime, rs, rowDecoder,
+                queryTiming, chunkSize);
+        EXECUTOR.execute(prefetcher);
+        return prefetcher;
+    }
+
+    /**
+     * Take the next row, waiting for the background thread to read it if
+     * need be, and typecast its values.
+     *
+     * @return the row, or null if there are no further rows
+     * @throws SQLException if reading the row failed
+     * @throws IOException if reading the row failed
+     */
+    RubyArray next() throws SQLException, IOException {
+        if (current == null) {
+            return null;
+        }
+        if (!current.hasNext()) {
+            List<Object[]> chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw runtime.newThreadError("Interrupted while waiting for rows");
+            }
+            if (chunk == END) {
+                current = null;
+                rethrowFailure();
+                return null;
+            }
+            current = chunk.iterator();
+        }
+        long convertStart = (queryTiming != null) ? System.nanoTime() : 0;
+        RubyArray values = rowDecoder.decode(runtime, current.next());
+        if (queryTiming != null) {
+            queryTiming.record(QueryTimings.Phase.CONVERT, System.nanoTime() - convertStart);
+        }
+        return values;
+    }
+
+    /**
+     * Stop reading rows: cancel the statement if the background thread is
+     * waiting for the database, and wait a while for it to let go of the
+     * result set.
+     *
+     * @return whether the background thread let go of the result set; if
+     *         not, it may still be using the statement
+     */
+    boolean close() {
+        cancelled = true;
+        // let a background thread that waits for room in the queue notice
+        chunks.clear();
+        if (inNext && statement != null) {
+            // a background thread blocked in ResultSet#next, on a slow
+            // query, is only stopped by cancelling the statement
+            try {
+                statement.cancel();
+            } catch (SQLException ignore) {
+            }
+        }
+        boolean interrupted = false;
+        boolean done = false;
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        while (true) {
+            long wait = deadline - System.currentTimeMillis();
+            try {
+                done = wait > 0 && finished.await(wait, TimeUnit.MILLISECONDS);
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        chunks.clear();
+        current = null;
+        return done || finished.getCount() == 0;
+    }
+
+    public void run() {
+        List<Object[]> chunk = new ArrayList<Object[]>(chunkSize);
+        try {
+            while (!cancelled) {
+                long fetchStart = (queryTiming != null) ? System.nanoTime() : 0;
+                inNext = true;
+                boolean hasNext;
+                try {
+                    hasNext = rs.next();
+                } finally {
+                    inNext = false;
+                }
+                if (!hasNext) {
+                    break;
+                }
+                chunk.add(rowDecoder.fetch(rs));
+                if (queryTiming != null) {
+                    queryTiming.record(QueryTimings.Phase.FETCH, System.nanoTime() - fetchStart);
+                }
+                if (chunk.size() == chunkSize) {
+                    put(chunk);
+                    chunk = new ArrayList<Object[]>(chunkSize);
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            try {
+                // the rows read before the end, or a failure
+                if (!chunk.isEmpty()) {
+                    put(chunk);
+                }
+                put(END);
+            } catch (InterruptedException ex) {
+                // the pool is being shut down; the reader is abandoned
+            }
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Hand a chunk to the Ruby thread, waiting for room in the queue unless
+     * the prefetcher is cancelled.
+     */
+    private void put(List<Object[]> chunk) throws InterruptedException {
+        while (!cancelled) {
+            if (chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private void rethrowFailure() throws SQLException, IOException {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        failure = null;
+        if (t instanceof SQLException) {
+            throw (SQLException) t;
+        } else if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+
+}
@@ -46,6 +46,9 @@ public class Transaction extends DORubyObject {
         return transactionClass;
     }
 
+    // the DataObjects connection the transaction runs on
+    private Connection connection;
+
     private Transaction(Ruby runtime, RubyClass klass) {
         super(runtime, klass);
     }
@@ -117,16 +120,21 @@ public class Transaction extends DORubyObject {
     // ---------------------------------------------------------- HELPER METHODS
 
     private java.sql.Connection getConnection() {
-        Ruby runtime = getRuntime();
-        IRubyObject connection_instance = api.getInstanceVariable(this,
-                "@connection");
-        IRubyObject wrapped_jdbc_connection = api.getInstanceVariable(
-                connection_instance, "@connection");
-        if (wrapped_jdbc_connection.isNil()) {
-            throw driver.newDriverError(runtime,
+        if (connection == null) {
+            // set once by the Ruby initialize, so only looked up on first use
+            IRubyObject connection_instance = api.getInstanceVariable(this,
+                    "@connection");
+            if (connection_instance instanceof Connection) {
+                connection = (Connection) connection_instance;
+            }
+        }
+        java.sql.Connection conn = (connection != null) ? connection
+                .getJavaConnection() : null;
+        if (conn == null) {
+            throw driver.newDriverError(getRuntime(),
                     "This connection has already been closed.");
         }
-        return (java.sql.Connection) wrapped_jdbc_connection.dataGetStruct();
+        return conn;
     }
 
 }
@@ -1,11 +1,17 @@
 package data_objects.drivers;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
@@ -27,6 +33,7 @@ import org.jruby.RubyClass;
 import org.jruby.RubyFixnum;
 import org.jruby.RubyFloat;
 import org.jruby.RubyHash;
+import org.jruby.RubyIO;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyObjectAdapter;
 import org.jruby.RubyProc;
@@ -38,7 +45,10 @@ import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.marshal.UnmarshalStream;
 import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
 
+import data_objects.DriverClasses;
+import data_objects.PrimitiveType;
 import data_objects.RubyType;
 import java.lang.UnsupportedOperationException;
 
@@ -55,10 +65,16 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
 
     protected final static DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private final String scheme;
     private final String jdbcScheme;
     private final String moduleName;
 
+    // the classes of the runtime setPreparedStatementParam last bound a value
+    // of, weakly, as the definition is shared between runtimes
+    private volatile WeakReference<DriverClasses> boundClasses = new WeakReference<DriverClasses>(null);
+
     protected AbstractDriverDefinition(String scheme, String moduleName) {
         this(scheme, scheme, moduleName);
     }
@@ -201,6 +217,16 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
     public final IRubyObject getTypecastResultSetValue(Ruby runtime,
             ResultSet rs, int col, RubyType type) throws SQLException,
             IOException {
+        if (rs == null) {
+            return runtime.getNil();
+        }
+        return getTypecastResultSetValue(runtime, rs, col, type, rs
+                .getMetaData().getColumnType(col));
+    }
+
+    public final IRubyObject getTypecastResultSetValue(Ruby runtime,
+            ResultSet rs, int col, RubyType type, int jdbcType)
+            throws SQLException, IOException {
         // TODO assert to needs to be turned on with the java call
         // better throw something
         assert (type != null); // this method does not expect a null Ruby Type
@@ -208,208 +234,756 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             return runtime.getNil();
         }
 
-        return doGetTypecastResultSetValue(runtime, rs, col, type);
+        return getValueReader(type, jdbcType).get(runtime, rs, col);
     }
 
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        //System.out.println(rs.getMetaData().getColumnTypeName(col) + " = " + type.toString());
+    public PrimitiveType getPrimitiveType(RubyType type, int jdbcType) {
+        // only where getValueReader gives the same value for any number
+        switch (type) {
+        case FIXNUM:
+        case INTEGER:
+        case BIGNUM:
+            switch (jdbcType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return PrimitiveType.LONG;
+            }
+            return null;
+        case FLOAT:
+            switch (jdbcType) {
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return PrimitiveType.DOUBLE;
+            }
+            return null;
+        case TRUE_CLASS:
+            switch (jdbcType) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return PrimitiveType.BOOLEAN;
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    public boolean readsStringBytes(int jdbcType) {
+        return false;
+    }
+
+    public ValueReader getStringBytesReader() {
+        return STRING_BYTES_READER;
+    }
+
+    public ValueReader getValueReader(RubyType type, int jdbcType) {
+        //System.out.println(type.toString() + " for JDBC type " + jdbcType);
         switch (type) {
         case FIXNUM:
         case INTEGER:
         case BIGNUM:
+            return INTEGER_READER;
+        case FLOAT:
+            // TODO: why getDouble is not used here?
+            return FLOAT_READER;
+        case BIG_DECIMAL:
+            return BIG_DECIMAL_READER;
+        case DATE:
+            return DATE_READER;
+        case DATE_TIME:
+            return DATE_TIME_READER;
+        case TIME:
+            switch (jdbcType) {
+            case Types.TIME:
+                return TIME_READER;
+            case Types.TIMESTAMP:
+                return TIMESTAMP_TIME_READER;
+            case Types.DATE:
+                return DATE_TIME_OF_DAY_READER;
+            default:
+                return STRING_READER;
+            }
+        case TRUE_CLASS:
+            return BOOLEAN_READER;
+        case BYTE_ARRAY:
+            switch (supportsJdbcLobs() ? jdbcType : Types.LONGVARBINARY) {
+            case Types.BLOB:
+                return BLOB_BYTE_ARRAY_READER;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return BYTE_ARRAY_READER;
+            default:
+                return STREAM_BYTE_ARRAY_READER;
+            }
+        case CLASS:
+            return CLASS_READER;
+        case OBJECT:
+            return OBJECT_READER;
+        case NIL:
+            return NIL_READER;
+        case STRING:
+        default:
+            return STRING_READER;
+        }
+    }
+
+    /**
+     * Typecast an integer value read with getLong (as a Long), or as a
+     * BigDecimal if it is out of the range of long.
+     *
+     * @param runtime
+     * @param value
+     * @return a Fixnum or Bignum
+     */
+    protected static IRubyObject typecastInteger(Ruby runtime, Object value) {
+        if (value instanceof Long) {
+            return RubyNumeric.int2fix(runtime, ((Long) value).longValue());
+        }
+        // will return either Fixnum or Bignum
+        return RubyBignum.bignorm(runtime, ((BigDecimal) value).toBigInteger());
+    }
+
+    /**
+     * @param runtime
+     * @param str
+     * @return the tainted String
+     */
+    protected static IRubyObject typecastString(Ruby runtime, String str) {
+        RubyString return_str = RubyString.newUnicodeString(runtime, str);
+        return_str.setTaint(true);
+        return return_str;
+    }
+
+    private static final ValueReader INTEGER_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
             try {
                 // in most cases integers will fit into long type
                 // and therefore should be faster to use getLong
                 long lng = rs.getLong(col);
-                if (rs.wasNull()) {
-                    return runtime.getNil();
-                }
-                return RubyNumeric.int2fix(runtime, lng);
+                return rs.wasNull() ? null : Long.valueOf(lng);
             } catch (SQLException sqle) {
                 // if getLong failed then use getBigDecimal
-                BigDecimal bdi = rs.getBigDecimal(col);
-                if (bdi == null) {
-                    return runtime.getNil();
-                }
-                // will return either Fixnum or Bignum
-                return RubyBignum.bignorm(runtime, bdi.toBigInteger());
-            }
-        case FLOAT:
-            // TODO: why getDouble is not used here?
-            BigDecimal bdf = rs.getBigDecimal(col);
-            if (bdf == null) {
-                return runtime.getNil();
-            }
-            return new RubyFloat(runtime, bdf.doubleValue());
-        case BIG_DECIMAL:
-            BigDecimal bd = rs.getBigDecimal(col);
-            if (bd  == null) {
-                return runtime.getNil();
-            }
-            return new RubyBigDecimal(runtime, bd);
-        case DATE:
-            java.sql.Date date = rs.getDate(col);
-            if (date == null) {
-                return runtime.getNil();
+                return rs.getBigDecimal(col);
             }
-            return prepareRubyDateFromSqlDate(runtime, sqlDateToDateTime(date));
-        case DATE_TIME:
-            java.sql.Timestamp dt = null;
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return typecastInteger(runtime, value);
+        }
+    };
+
+    private static final ValueReader FLOAT_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getBigDecimal(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return new RubyFloat(runtime, ((BigDecimal) value).doubleValue());
+        }
+    };
+
+    private static final ValueReader BIG_DECIMAL_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getBigDecimal(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return new RubyBigDecimal(runtime, (BigDecimal) value);
+        }
+    };
+
+    private static final ValueReader DATE_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getDate(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return TemporalConverter.forRuntime(runtime).newDate(
+                    (java.sql.Date) value);
+        }
+    };
+
+    private static final ValueReader DATE_TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) {
             // DateTimes with all-zero components throw a SQLException with
             // SQLState S1009 in MySQL Connector/J 3.1+
             // See
             // http://dev.mysql.com/doc/refman/5.0/en/connector-j-installing-upgrading.html
             try {
-                dt = rs.getTimestamp(col);
+                return rs.getTimestamp(col);
             } catch (SQLException sqle) {
+                return null;
             }
-            if (dt == null) {
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return TemporalConverter.forRuntime(runtime).newDateTime(
+                    (Timestamp) value);
+        }
+    };
+
+    private static final ValueReader TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getTime(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            long millis = ((java.util.Date) value).getTime();
+            if (millis + 3600000 == 0) {
                 return runtime.getNil();
             }
-            return prepareRubyDateTimeFromSqlTimestamp(runtime, sqlTimestampToDateTime(dt));
-        case TIME:
-            switch (rs.getMetaData().getColumnType(col)) {
-            case Types.TIME:
-                java.sql.Time tm = rs.getTime(col);
-                if (tm == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlTime(runtime, new DateTime(tm));
-            case Types.TIMESTAMP:
-                java.sql.Timestamp ts = rs.getTimestamp(col);
-                if (ts == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(ts));
-            case Types.DATE:
-                java.sql.Date da = rs.getDate(col);
-                if (da == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlDate(runtime, da);
-            default:
-                String str = rs.getString(col);
-                if (str == null) {
-                    return runtime.getNil();
-                }
-                RubyString return_str = RubyString.newUnicodeString(runtime,
-                        str);
-                return_str.setTaint(true);
-                return return_str;
-            }
-        case TRUE_CLASS:
+            return TemporalConverter.forRuntime(runtime).newTime(millis);
+        }
+    };
+
+    private static final ValueReader TIMESTAMP_TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getTimestamp(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return TIME_READER.typecast(runtime, value);
+        }
+    };
+
+    private static final ValueReader DATE_TIME_OF_DAY_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getDate(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return prepareRubyTimeFromSqlDate(runtime, (Date) value);
+        }
+    };
+
+    private static final ValueReader BOOLEAN_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
             // getBoolean delivers False in case the underlying data is null
-            if (rs.getString(col) == null){
-                return runtime.getNil();
+            if (rs.getString(col) == null) {
+                return null;
             }
-            return runtime.newBoolean(rs.getBoolean(col));
-        case BYTE_ARRAY:
-            InputStream binaryStream = rs.getBinaryStream(col);
-            ByteList bytes = new ByteList(2048);
-            try {
-                byte[] buf = new byte[2048];
-                for (int n = binaryStream.read(buf); n != -1; n = binaryStream
-                        .read(buf)) {
-                    bytes.append(buf, 0, n);
-                }
-            } finally {
-                binaryStream.close();
+            return Boolean.valueOf(rs.getBoolean(col));
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return runtime.newBoolean(((Boolean) value).booleanValue());
+        }
+    };
+
+    /**
+     * Reads a BLOB whole, into a buffer of its length.
+     */
+    private static final ValueReader BLOB_BYTE_ARRAY_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException,
+                IOException {
+            Blob blob = rs.getBlob(col);
+            if (blob == null) {
+                return null;
             }
-            return API.callMethod(runtime.fastGetModule("Extlib").fastGetClass(
-                    "ByteArray"), "new", runtime.newString(bytes));
-        case CLASS:
-            String classNameStr = rs.getString(col);
-            if (classNameStr == null) {
-                return runtime.getNil();
+            return readBytes(blob.getBinaryStream(), blob.length());
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return newByteArray(runtime, (ByteList) value);
+        }
+    };
+
+    /**
+     * Reads a binary column into the array the driver reads it into.
+     */
+    private static final ValueReader BYTE_ARRAY_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            byte[] array = rs.getBytes(col);
+            if (array == null) {
+                return null;
+            }
+            // the driver hands over the array, so it needn't be copied
+            return new ByteList(array, false);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return newByteArray(runtime, (ByteList) value);
+        }
+    };
+
+    /**
+     * Reads a binary value of unknown length from its stream.
+     */
+    private static final ValueReader STREAM_BYTE_ARRAY_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException,
+                IOException {
+            InputStream binaryStream = rs.getBinaryStream(col);
+            if (binaryStream == null) {
+                return null;
             }
-            RubyString class_name_str = RubyString.newUnicodeString(runtime, rs
-                    .getString(col));
-            class_name_str.setTaint(true);
+            return readBytes(binaryStream, -1);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return newByteArray(runtime, (ByteList) value);
+        }
+    };
+
+    private static final ValueReader CLASS_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
             return API.callMethod(runtime.getObject(), "full_const_get",
-                    class_name_str);
-        case OBJECT:
+                    typecastString(runtime, (String) value));
+        }
+    };
+
+    /**
+     * Reads the bytes of a marshalled object, which is unmarshalled when it
+     * is typecast.
+     */
+    private static final ValueReader OBJECT_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException,
+                IOException {
             InputStream asciiStream = rs.getAsciiStream(col);
+            if (asciiStream == null) {
+                return null;
+            }
+            return readBytes(asciiStream, -1);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            ByteList bytes = (ByteList) value;
             IRubyObject obj = runtime.getNil();
             try {
-                UnmarshalStream ums = new UnmarshalStream(runtime, asciiStream,
-                        RubyProc.NEVER);
+                UnmarshalStream ums = new UnmarshalStream(runtime,
+                        new ByteArrayInputStream(bytes.bytes, bytes.begin,
+                                bytes.realSize), RubyProc.NEVER);
                 obj = ums.unmarshalObject();
             } catch (IOException ioe) {
                 // TODO: log this
             }
             return obj;
-        case NIL:
+        }
+    };
+
+    private static final ValueReader NIL_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) {
+            return null;
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
             return runtime.getNil();
-        case STRING:
-        default:
-            String str = rs.getString(col);
-            if (str == null) {
-                return runtime.getNil();
+        }
+    };
+
+    private static final ValueReader STRING_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return typecastString(runtime, (String) value);
+        }
+    };
+
+    private static final ValueReader STRING_BYTES_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            byte[] bytes = rs.getBytes(col);
+            if (bytes == null && !rs.wasNull()) {
+                // some drivers read no bytes for an empty string
+                bytes = ByteList.NULL_ARRAY;
             }
-            RubyString return_str = RubyString.newUnicodeString(runtime, str);
-            return_str.setTaint(true);
-            return return_str;
+            return bytes;
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            // the driver hands over the array, so it needn't be copied
+            RubyString str = RubyString.newString(runtime, new ByteList(
+                    (byte[]) value, false));
+            str.setTaint(true);
+            return str;
+        }
+    };
+
+    /**
+     * @param runtime
+     * @param bytes
+     * @return the bytes, as an Extlib::ByteArray
+     */
+    private static IRubyObject newByteArray(Ruby runtime, ByteList bytes) {
+        RubyClass byteArrayClass = runtime.fastGetModule("Extlib")
+                .fastGetClass("ByteArray");
+        return new RubyString(runtime, byteArrayClass, bytes);
+    }
+
+    /**
+     * @param io
+     * @return the number of bytes from the IO's position to its end, or -1
+     *         if unknown
+     */
+    private static long remainingLength(IRubyObject io) {
+        IRubyObject size;
+        if (io.respondsTo("size")) {
+            size = API.callMethod(io, "size");
+        } else if (io.respondsTo("path") && io.respondsTo("stat")) {
+            // a File; pipes and sockets have no path
+            IRubyObject stat = API.callMethod(io, "stat");
+            if (!API.callMethod(stat, "file?").isTrue()) {
+                // e.g. a named pipe
+                return -1;
+            }
+            size = API.callMethod(stat, "size");
+        } else {
+            return -1;
+        }
+        if (size.isNil() || !io.respondsTo("pos")) {
+            return -1;
+        }
+        long pos = RubyNumeric.num2long(API.callMethod(io, "pos"));
+        return Math.max(RubyNumeric.num2long(size) - pos, 0);
+    }
+
+    /**
+     * Read a stream to its end, and close it.
+     *
+     * @param stream
+     * @param length the length of the stream, if known, otherwise -1
+     * @return
+     * @throws IOException
+     */
+    private static ByteList readBytes(InputStream stream, long length)
+            throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            stream.close();
+            throw new IOException("Binary value of " + length
+                    + " bytes is too large to read whole");
+        }
+        try {
+            ByteList bytes = new ByteList((length >= 0) ? (int) length
+                    : Math.max(stream.available(), 2048));
+            while (true) {
+                if (bytes.realSize == bytes.bytes.length) {
+                    // full, which is the end of a stream of known length:
+                    // only grow the buffer if there is more to come
+                    int b = stream.read();
+                    if (b == -1) {
+                        return bytes;
+                    }
+                    bytes.append(b);
+                    continue;
+                }
+                int n = stream.read(bytes.bytes, bytes.realSize,
+                        bytes.bytes.length - bytes.realSize);
+                if (n == -1) {
+                    return bytes;
+                }
+                bytes.realSize += n;
+            }
+        } finally {
+            stream.close();
         }
     }
 
     public void setPreparedStatementParam(PreparedStatement ps,
             IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case FIXNUM:
-            ps.setInt(idx, Integer.parseInt(arg.toString()));
-            break;
-        case BIGNUM:
-            ps.setLong(idx, ((RubyBignum) arg).getLongValue());
-            break;
-        case FLOAT:
-            ps.setDouble(idx, RubyNumeric.num2dbl(arg));
-            break;
-        case BIG_DECIMAL:
-            ps.setBigDecimal(idx, ((RubyBigDecimal) arg).getValue());
-            break;
-        case NIL:
-            ps.setNull(idx, ps.getParameterMetaData().getParameterType(idx));
-            break;
-        case TRUE_CLASS:
-        case FALSE_CLASS:
-            ps.setBoolean(idx, arg.toString().equals("true"));
-            break;
-        case STRING:
-            ps.setString(idx, arg.toString());
-            break;
-        case CLASS:
-            ps.setString(idx, arg.toString());
-            break;
-        case BYTE_ARRAY:
-            ps.setBytes(idx, ((RubyString) arg).getBytes());
-            break;
-        // TODO: add support for ps.setBlob();
-        case DATE:
-            ps.setDate(idx, java.sql.Date.valueOf(arg.toString()));
-            break;
-        case TIME:
-            DateTime dateTime = ((RubyTime) arg).getDateTime();
-            Timestamp ts = new Timestamp(dateTime.getMillis());
-            ps.setTimestamp(idx, ts, dateTime.toGregorianCalendar());
-            break;
-        case DATE_TIME:
-            String datetime = arg.toString().replace('T', ' ');
-            ps.setTimestamp(idx, Timestamp.valueOf(datetime
-                    .replaceFirst("[-+]..:..$", "")));
-            break;
-        case REGEXP:
-            ps.setString(idx, ((RubyRegexp) arg).source().toString());
-            break;
+        Ruby runtime = arg.getRuntime();
+        DriverClasses classes = boundClasses.get();
+        if (classes == null || classes.getCommandClass().getRuntime() != runtime) {
+            // looked up once per runtime, rather than for every parameter
+            classes = DriverClasses.forDriver(runtime, this);
+            boundClasses = new WeakReference<DriverClasses>(classes);
+        }
+        classes.getParameterBinders().bind(ps, arg, idx);
+    }
+
+    public ParameterBinders newParameterBinders() {
         // default case handling is simplified
         // TODO: if something is not working because of that then should be added to specs
-        default:
-            int jdbcType = ps.getParameterMetaData().getParameterType(idx);
-            ps.setObject(idx, arg.toString(), jdbcType);
+        ParameterBinders binders = new ParameterBinders(new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, arg.toString());
+            }
+        });
+        registerParameterBinders(binders);
+        return binders;
+    }
+
+    /**
+     * Register a binder for each Ruby class that can be bound to a
+     * PreparedStatement parameter. Drivers override this to replace the
+     * binders of particular classes, after calling super.
+     *
+     * @param binders
+     */
+    protected void registerParameterBinders(ParameterBinders binders) {
+        binders.register(RubyType.FIXNUM.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                long value = ((RubyFixnum) arg).getLongValue();
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    ps.setInt(idx, (int) value);
+                } else {
+                    ps.setLong(idx, value);
+                }
+            }
+        });
+        binders.register(RubyType.BIGNUM.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                BigInteger value = ((RubyBignum) arg).getValue();
+                if (value.bitLength() < 64) {
+                    ps.setLong(idx, value.longValue());
+                } else {
+                    ps.setBigDecimal(idx, new BigDecimal(value));
+                }
+            }
+        });
+        binders.register(RubyType.FLOAT.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setDouble(idx, ((RubyFloat) arg).getDoubleValue());
+            }
+        });
+        binders.register(RubyType.BIG_DECIMAL.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setBigDecimal(idx, ((RubyBigDecimal) arg).getValue());
+            }
+        });
+        binders.register(RubyType.NIL.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                setNullParam(ps, idx);
+            }
+        });
+        binders.register(RubyType.TRUE_CLASS.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setBoolean(idx, true);
+            }
+        });
+        binders.register(RubyType.FALSE_CLASS.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setBoolean(idx, false);
+            }
+        });
+        binders.register(RubyType.STRING.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, arg.toString());
+            }
+        });
+        binders.register(RubyType.CLASS.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, arg.toString());
+            }
+        });
+        binders.register(RubyType.BYTE_ARRAY.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                setByteListParam(ps, idx, ((RubyString) arg).getByteList());
+            }
+        });
+        // IO-like objects are streamed, see setIOParam
+        ParameterBinder ioBinder = new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                setIOParam(ps, arg, idx);
+            }
+        };
+        binders.register("IO", ioBinder);
+        binders.register("StringIO", ioBinder);
+        binders.register("Tempfile", ioBinder);
+        binders.register(RubyType.DATE.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setDate(idx, java.sql.Date.valueOf(arg.toString()));
+            }
+        });
+        binders.register(RubyType.TIME.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                DateTime dateTime = ((RubyTime) arg).getDateTime();
+                Timestamp ts = new Timestamp(dateTime.getMillis());
+                ps.setTimestamp(idx, ts, dateTime.toGregorianCalendar());
+            }
+        });
+        binders.register(RubyType.DATE_TIME.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                String datetime = arg.toString().replace('T', ' ');
+                ps.setTimestamp(idx, Timestamp.valueOf(datetime
+                        .replaceFirst("[-+]..:..$", "")));
+            }
+        });
+        binders.register(RubyType.REGEXP.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, ((RubyRegexp) arg).source().toString());
+            }
+        });
+    }
+
+    /**
+     * Bind NULL to a parameter without looking up its SQL type, as
+     * ParameterMetaData may cost a round trip to the database. Drivers that
+     * need the actual parameter type for setNull can override this.
+     *
+     * @param ps
+     * @param idx
+     * @throws SQLException
+     */
+    protected void setNullParam(PreparedStatement ps, int idx)
+            throws SQLException {
+        ps.setNull(idx, Types.NULL);
+    }
+
+    /**
+     * Bind the bytes of a String (or ByteArray) without copying them: the
+     * String's array is handed over if it holds just those bytes, otherwise
+     * the bytes are streamed from it.
+     *
+     * @param ps
+     * @param idx
+     * @param bytes
+     * @throws SQLException
+     */
+    protected void setByteListParam(PreparedStatement ps, int idx,
+            ByteList bytes) throws SQLException {
+        if (bytes.begin == 0 && bytes.realSize == bytes.bytes.length) {
+            ps.setBytes(idx, bytes.bytes);
+        } else {
+            setBinaryStreamParam(ps, idx, new ByteArrayInputStream(
+                    bytes.bytes, bytes.begin, bytes.realSize), bytes.realSize);
         }
     }
 
+    /**
+     * Bind the rest of an IO-like object (an IO, File, Tempfile or
+     * StringIO), streamed to the database as the statement executes rather
+     * than read into memory here. An IO is bound as binary, of its remaining
+     * length, or read whole if that is unknown, as for a pipe; only a
+     * StringIO of a String (rather than of a ByteArray) is bound as text, a
+     * UTF-8 character stream of unknown length, as the String would be.
+     *
+     * @param ps
+     * @param io
+     * @param idx
+     * @throws SQLException
+     */
+    protected void setIOParam(PreparedStatement ps, IRubyObject io, int idx)
+            throws SQLException {
+        if (isTextIO(io)) {
+            setCharacterStreamParam(ps, idx, new InputStreamReader(
+                    newIOStream(io), UTF8));
+            return;
+        }
+        long length = remainingLength(io);
+        if (length < 0) {
+            IRubyObject rest = API.callMethod(io, "read");
+            RubyString str = rest.isNil() ? RubyString.newEmptyString(io.getRuntime())
+                                          : rest.convertToString();
+            setByteListParam(ps, idx, str.getByteList());
+            return;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new SQLException("IO of " + length
+                    + " bytes is too large to bind");
+        }
+        setBinaryStreamParam(ps, idx, newIOStream(io), (int) length);
+    }
+
+    /**
+     * @param io
+     * @return a stream of the IO's bytes, which leaves the IO open when it
+     *         is closed, as the IO belongs to the caller
+     */
+    private static InputStream newIOStream(IRubyObject io) {
+        return new IOInputStream(io) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Whether an IO holds text: a StringIO of a String. Files, pipes and
+     * Tempfiles hold bytes, whatever mode they were opened in, and so does a
+     * StringIO of a ByteArray.
+     *
+     * @param io
+     * @return
+     */
+    private static boolean isTextIO(IRubyObject io) {
+        if (io instanceof RubyIO || !io.respondsTo("string")) {
+            return false;
+        }
+        IRubyObject str = API.callMethod(io, "string");
+        return !RubyType.BYTE_ARRAY.getRubyName().equals(
+                str.getMetaClass().getName());
+    }
+
+    /**
+     * Bind a stream of binary data of a known length. Drivers that can't
+     * stream a parameter can override this to read the stream.
+     *
+     * @param ps
+     * @param idx
+     * @param stream
+     * @param length
+     * @throws SQLException
+     */
+    protected void setBinaryStreamParam(PreparedStatement ps, int idx,
+            InputStream stream, int length) throws SQLException {
+        ps.setBinaryStream(idx, stream, length);
+    }
+
+    /**
+     * Bind a stream of text of unknown length, with JDBC 4's
+     * setCharacterStream. A stream is read into a String for drivers that
+     * predate JDBC 4; drivers that can't stream a parameter can override
+     * this to do so too.
+     *
+     * @param ps
+     * @param idx
+     * @param reader
+     * @throws SQLException
+     */
+    protected void setCharacterStreamParam(PreparedStatement ps, int idx,
+            java.io.Reader reader) throws SQLException {
+        try {
+            ps.setCharacterStream(idx, reader);
+        } catch (AbstractMethodError ame) {
+            ps.setString(idx, readString(reader));
+        }
+    }
+
+    /**
+     * Read a stream of text to its end.
+     *
+     * @param reader
+     * @return
+     * @throws SQLException
+     */
+    protected static String readString(java.io.Reader reader)
+            throws SQLException {
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[8192];
+        try {
+            int n;
+            while ((n = reader.read(buf)) != -1) {
+                text.append(buf, 0, n);
+            }
+        } catch (IOException ioe) {
+            throw new SQLException("Cannot read from IO: " + ioe.getMessage());
+        }
+        return text.toString();
+    }
+
     public boolean registerPreparedStatementReturnParam(String sqlText, PreparedStatement ps, int idx) throws SQLException {
         return false;
     }
@@ -418,6 +992,19 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
         return 0;
     }
 
+    public int[] executeBatch(PreparedStatement ps) throws SQLException {
+        return ps.executeBatch();
+    }
+
+    public void setStreamingFetchSize(PreparedStatement ps, int fetchSize)
+            throws SQLException {
+        ps.setFetchSize(fetchSize);
+    }
+
+    public boolean requiresTransactionForStreaming() {
+        return false;
+    }
+
     public String prepareSqlTextForPs(String sqlText, IRubyObject[] args) {
         return sqlText;
     }
@@ -434,6 +1021,10 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
         return true;
     }
 
+    public boolean supportsJdbcLobs() {
+        return true;
+    }
+
     public ResultSet getGeneratedKeys(Connection connection) {
         return null;
     }
@@ -491,24 +1082,10 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             return runtime.getNil();
         }
 
-        int zoneOffset = stamp.getZone().getOffset(stamp.getMillis()) / 3600000;
-
-        RubyClass klazz = runtime.fastGetClass("DateTime");
-
-        IRubyObject rbOffset = runtime.fastGetClass("Rational").callMethod(
-                runtime.getCurrentContext(),
-                "new",
-                new IRubyObject[] { runtime.newFixnum(zoneOffset),
-                        runtime.newFixnum(24) });
-
-        return klazz.callMethod(runtime.getCurrentContext(), "civil",
-                new IRubyObject[] { runtime.newFixnum(stamp.getYear()),
-                        runtime.newFixnum(stamp.getMonthOfYear()),
-                        runtime.newFixnum(stamp.getDayOfMonth()),
-                        runtime.newFixnum(stamp.getHourOfDay()),
-                        runtime.newFixnum(stamp.getMinuteOfHour()),
-                        runtime.newFixnum(stamp.getSecondOfMinute()),
-                        rbOffset });
+        long millis = stamp.getMillis();
+        long epochSecond = millis / 1000 - ((millis % 1000 < 0) ? 1 : 0);
+        return TemporalConverter.forRuntime(runtime).newDateTime(epochSecond,
+                stamp.getZone().getOffset(millis) / 1000);
     }
 
     protected static IRubyObject prepareRubyTimeFromSqlTime(Ruby runtime,
@@ -539,11 +1116,8 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             return runtime.getNil();
         }
 
-        RubyClass klazz = runtime.fastGetClass("Date");
-        return klazz.callMethod(runtime.getCurrentContext(), "civil",
-                new IRubyObject[] { runtime.newFixnum(date.getYear()),
-                        runtime.newFixnum(date.getMonthOfYear()),
-                        runtime.newFixnum(date.getDayOfMonth()) });
+        return TemporalConverter.forRuntime(runtime).newDate(date.getYear(),
+                date.getMonthOfYear(), date.getDayOfMonth());
     }
 
     private static String stringOrNull(IRubyObject obj) {
@@ -17,6 +17,7 @@ import org.jruby.RubyObjectAdapter;
 import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.builtin.IRubyObject;
 
+import data_objects.PrimitiveType;
 import data_objects.RubyType;
 
 /**
@@ -50,9 +51,77 @@ public interface DriverDefinition {
     public IRubyObject getTypecastResultSetValue(Ruby runtime, ResultSet rs,
             int col, RubyType type) throws SQLException, IOException;
 
+    /**
+     * Like {@link #getTypecastResultSetValue(Ruby, ResultSet, int, RubyType)},
+     * for a column whose JDBC type (see java.sql.Types) is already known, so
+     * that no ResultSetMetaData has to be consulted.
+     */
+    public IRubyObject getTypecastResultSetValue(Ruby runtime, ResultSet rs,
+            int col, RubyType type, int jdbcType) throws SQLException, IOException;
+
+    /**
+     * The reader getTypecastResultSetValue reads and typecasts the values of
+     * a column with, for the Ruby type they are cast to and the column's JDBC
+     * type. Readers are looked up once per column of a result, rather than
+     * once per value.
+     *
+     * Drivers that read or typecast a Ruby type differently (for some JDBC
+     * types) override this, returning their own readers for those.
+     *
+     * @param type
+     * @param jdbcType
+     * @return
+     */
+    public ValueReader getValueReader(RubyType type, int jdbcType);
+
+    /**
+     * The primitive type that columnar results hold the values of a column in,
+     * rather than typecasting each value with getTypecastResultSetValue, or
+     * null if the column's values have to be typecast one by one.
+     *
+     * Drivers that typecast a Ruby type differently for some JDBC types must
+     * exclude those here.
+     *
+     * @param type the Ruby type the column's values are cast to
+     * @param jdbcType the JDBC type of the column
+     * @return
+     */
+    public PrimitiveType getPrimitiveType(RubyType type, int jdbcType);
+
+    /**
+     * Whether ResultSet#getBytes reads the text of a column of the given JDBC
+     * type as the bytes the database sent, in the connection's encoding (or
+     * in UTF-8, for drivers that don't support connection encodings), rather
+     * than, say, parsing the text as hexadecimal.
+     *
+     * @param jdbcType
+     * @return
+     * @see #getStringBytesReader()
+     */
+    public boolean readsStringBytes(int jdbcType);
+
+    /**
+     * The reader of String values straight from the bytes the JDBC driver
+     * read, rather than decoding them to a Java String and encoding that as
+     * UTF-8 again. Only for columns readsStringBytes holds for, read over a
+     * connection whose encoding is UTF-8. The Strings are tainted.
+     *
+     * @return
+     */
+    public ValueReader getStringBytesReader();
+
     public void setPreparedStatementParam(PreparedStatement ps,
             IRubyObject arg, int idx) throws SQLException;
 
+    /**
+     * Build the dispatch table of the binders setPreparedStatementParam binds
+     * values with. Each runtime has its own, kept with the driver's classes.
+     *
+     * @return
+     * @see data_objects.DriverClasses#getParameterBinders()
+     */
+    public ParameterBinders newParameterBinders();
+
     /**
      * Callback for registering output parameter
      * Necessary for Oracle INSERT ... RETURNING ... INTO ... statements
@@ -69,6 +138,36 @@ public interface DriverDefinition {
      */
     public long getPreparedStatementReturnParam(PreparedStatement ps) throws SQLException;
 
+    /**
+     * Callback for executing the rows queued on a PreparedStatement with
+     * addBatch(). Drivers with vendor specific batching can override this.
+     *
+     * @param ps
+     * @return an update count for each queued row
+     * @see java.sql.Statement#executeBatch()
+     */
+    public int[] executeBatch(PreparedStatement ps) throws SQLException;
+
+    /**
+     * Callback for making a forward-only PreparedStatement stream its result
+     * set from the database, fetchSize rows at a time, instead of reading it
+     * whole when executed. Drivers with vendor specific streaming (e.g.
+     * MySQL) can override this.
+     *
+     * @param ps
+     * @param fetchSize the number of rows to fetch at a time, greater than 0
+     * @see java.sql.Statement#setFetchSize(int)
+     */
+    public void setStreamingFetchSize(PreparedStatement ps, int fetchSize) throws SQLException;
+
+    /**
+     * Whether the driver only streams a result set with a cursor while
+     * autocommit is off (e.g. PostgreSQL), and otherwise reads it whole.
+     *
+     * @return
+     */
+    public boolean requiresTransactionForStreaming();
+
     /**
      * Callback for doing driver specific SQL statement modification
      * Necessary for Oracle driver to replace :insert_id with ?
@@ -105,6 +204,13 @@ public interface DriverDefinition {
      */
     public boolean supportsConnectionPrepareStatementMethodWithGKFlag();
 
+    /**
+     * Whether the Driver supports ResultSet#getBlob and ResultSet#getClob
+     *
+     * @return
+     */
+    public boolean supportsJdbcLobs();
+
     /**
      * Whether the Driver supports specifying a connection encoding
      *
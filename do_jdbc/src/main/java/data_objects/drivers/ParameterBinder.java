@@ -0,0 +1,19 @@
+package data_objects.drivers;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Binds a Ruby value of one particular class to a PreparedStatement
+ * parameter.
+ *
+ * @see ParameterBinders
+ */
+public interface ParameterBinder {
+
+    public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+            throws SQLException;
+
+}
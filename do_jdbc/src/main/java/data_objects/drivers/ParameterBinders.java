@@ -0,0 +1,68 @@
+package data_objects.drivers;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jruby.RubyClass;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Dispatch table of ParameterBinders, by Ruby class.
+ */
+public final class ParameterBinders {
+
+    private final Map<String, ParameterBinder> byName = new HashMap<String, ParameterBinder>();
+    private final ParameterBinder fallback;
+
+    // copy-on-write, as resolved classes are added while binding
+    private volatile Map<RubyClass, ParameterBinder> byClass = new IdentityHashMap<RubyClass, ParameterBinder>();
+
+    /**
+     * @param fallback binder for values of classes without a registered
+     *        binder
+     */
+    public ParameterBinders(ParameterBinder fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Register a binder for values of the named Ruby class (and its
+     * subclasses), replacing any binder registered for it before.
+     *
+     * @param rubyClassName
+     * @param binder
+     */
+    public synchronized void register(String rubyClassName, ParameterBinder binder) {
+        byName.put(rubyClassName, binder);
+        byClass = new IdentityHashMap<RubyClass, ParameterBinder>();
+    }
+
+    public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+            throws SQLException {
+        get(arg).bind(ps, arg, idx);
+    }
+
+    public ParameterBinder get(IRubyObject arg) {
+        RubyClass klass = arg.getMetaClass().getRealClass();
+        ParameterBinder binder = byClass.get(klass);
+        return (binder != null) ? binder : resolve(klass);
+    }
+
+    private synchronized ParameterBinder resolve(RubyClass klass) {
+        ParameterBinder binder = null;
+        for (RubyClass c = klass; c != null && binder == null; c = c.getSuperClass()) {
+            binder = byName.get(c.getName());
+        }
+        if (binder == null) {
+            binder = fallback;
+        }
+        Map<RubyClass, ParameterBinder> resolved = new IdentityHashMap<RubyClass, ParameterBinder>(byClass);
+        resolved.put(klass, binder);
+        byClass = resolved;
+        return binder;
+    }
+
+}
@@ -0,0 +1,239 @@
+package data_objects.drivers;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyTime;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.CallSite;
+import org.jruby.runtime.MethodIndex;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Builds Ruby Dates, DateTimes and Times from JDBC temporal values.
+ */
+public final class TemporalConverter {
+
+    private static final long SECONDS_PER_DAY = 86400;
+    private static final long MILLIS_PER_DAY = SECONDS_PER_DAY * 1000;
+    // the Julian day number of 1970-01-01
+    private static final long EPOCH_JULIAN_DAY = 2440588;
+    // the Julian day number of Date::ITALY, the first day of the Gregorian
+    // calendar
+    private static final long ITALY_JULIAN_DAY = 2299161;
+
+    private static final String IVAR_NAME = "@__temporal_converter";
+
+    private final Ruby runtime;
+    private final TimeZone zone = TimeZone.getDefault();
+
+    // a call site per receiver, so that each keeps its method cached
+    private final CallSite dateNew = MethodIndex.getCallSite("new!");
+    private final CallSite dateTimeNew = MethodIndex.getCallSite("new!");
+    private final CallSite rationalNew = MethodIndex.getCallSite("new!");
+
+    // resolved on first use, as date.rb may be loaded after the driver
+    private RubyClass dateClass;
+    private RubyClass dateTimeClass;
+    private RubyClass rationalClass;
+    // set last, so that the classes are resolved once it is set
+    private volatile IRubyObject italy;
+
+    // the Rational day fractions of the zone offsets met, by offset seconds
+    private final Map<Integer, IRubyObject> offsets = new ConcurrentHashMap<Integer, IRubyObject>();
+
+    private TemporalConverter(Ruby runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * The converter for a runtime, kept on the runtime's DataObjects module.
+     * It is built on first use.
+     *
+     * @param runtime
+     * @return
+     */
+    public static TemporalConverter forRuntime(Ruby runtime) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        IRubyObject converter = doModule.getInstanceVariable(IVAR_NAME);
+        if (converter == null || converter.isNil()) {
+            synchronized (doModule) {
+                converter = doModule.getInstanceVariable(IVAR_NAME);
+                if (converter == null || converter.isNil()) {
+                    converter = JavaEmbedUtils.javaToRuby(runtime,
+                            new TemporalConverter(runtime));
+                    doModule.setInstanceVariable(IVAR_NAME, converter);
+                }
+            }
+        }
+        return (TemporalConverter) JavaEmbedUtils.rubyToJava(converter);
+    }
+
+    /**
+     * @param date
+     * @return the Date of the date's day in the default time zone, or nil for
+     *         the epoch
+     */
+    public IRubyObject newDate(Date date) {
+        long millis = date.getTime();
+        if (millis == 0) {
+            return runtime.getNil();
+        }
+        long localMillis = millis + zone.getOffset(millis);
+        return newDate(floorDiv(localMillis, MILLIS_PER_DAY) + EPOCH_JULIAN_DAY);
+    }
+
+    /**
+     * @param year
+     * @param month 1 to 12
+     * @param day
+     * @return the Date Date.civil(year, month, day) would give
+     */
+    public IRubyObject newDate(int year, int month, int day) {
+        return newDate(civilToJulianDay(year, month, day));
+    }
+
+    /**
+     * @param ts
+     * @return the DateTime of the timestamp, to the second, in the default
+     *         time zone, or nil for the epoch
+     */
+    public IRubyObject newDateTime(Timestamp ts) {
+        long millis = ts.getTime();
+        if (millis == 0) {
+            return runtime.getNil();
+        }
+        return newDateTime(millis);
+    }
+
+    /**
+     * @param millis the milliseconds since the epoch
+     * @return the DateTime of the instant, to the second, in the default time
+     *         zone
+     */
+    public IRubyObject newDateTime(long millis) {
+        return newDateTime(floorDiv(millis, 1000), zone.getOffset(millis) / 1000);
+    }
+
+    /**
+     * @param epochSecond the seconds since the epoch, in UTC
+     * @param offsetSeconds the offset of the DateTime's time zone from UTC
+     * @return
+     */
+    public IRubyObject newDateTime(long epochSecond, int offsetSeconds) {
+        // ajd = epoch Julian day - 1/2 + epochSecond / SECONDS_PER_DAY
+        long numerator = 2 * epochSecond + (2 * EPOCH_JULIAN_DAY - 1) * SECONDS_PER_DAY;
+        long denominator = 2 * SECONDS_PER_DAY;
+        ThreadContext context = runtime.getCurrentContext();
+        resolveClasses();
+        IRubyObject ajd = newRational(context, numerator, denominator);
+        return dateTimeNew.call(context, dateTimeClass, dateTimeClass, ajd,
+                offset(context, offsetSeconds), italy);
+    }
+
+    /**
+     * @param millis
+     * @return the Time of the epoch milliseconds, in the default time zone
+     */
+    public IRubyObject newTime(long millis) {
+        return RubyTime.newTime(runtime, millis);
+    }
+
+    /**
+     * @return the default time zone the values are converted in
+     */
+    public TimeZone getTimeZone() {
+        return zone;
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    private IRubyObject newDate(long julianDay) {
+        ThreadContext context = runtime.getCurrentContext();
+        resolveClasses();
+        // ajd = julianDay - 1/2, in lowest terms already
+        IRubyObject ajd = rationalNew.call(context, rationalClass,
+                rationalClass, runtime.newFixnum(2 * julianDay - 1),
+                runtime.newFixnum(2));
+        return dateNew.call(context, dateClass, dateClass, ajd,
+                runtime.newFixnum(0), italy);
+    }
+
+    private IRubyObject offset(ThreadContext context, int offsetSeconds) {
+        IRubyObject offset = offsets.get(offsetSeconds);
+        if (offset == null) {
+            offset = newRational(context, offsetSeconds, SECONDS_PER_DAY);
+            offsets.put(offsetSeconds, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Rational.new! takes the numerator and denominator as they are, so they
+     * are reduced here.
+     */
+    private IRubyObject newRational(ThreadContext context, long numerator,
+            long denominator) {
+        long gcd = gcd(Math.abs(numerator), denominator);
+        if (gcd > 1) {
+            numerator /= gcd;
+            denominator /= gcd;
+        }
+        return rationalNew.call(context, rationalClass, rationalClass,
+                runtime.newFixnum(numerator), runtime.newFixnum(denominator));
+    }
+
+    private void resolveClasses() {
+        if (italy == null) {
+            rationalClass = runtime.fastGetClass("Rational");
+            dateClass = runtime.fastGetClass("Date");
+            dateTimeClass = runtime.fastGetClass("DateTime");
+            italy = dateClass.getConstant("ITALY");
+        }
+    }
+
+    /**
+     * Date.civil_to_jd, for the Julian to Gregorian reform of Date::ITALY.
+     */
+    private static long civilToJulianDay(int year, int month, int day) {
+        if (month <= 2) {
+            year -= 1;
+            month += 12;
+        }
+        double a = Math.floor(year / 100.0);
+        double b = 2 - a + Math.floor(a / 4.0);
+        long jd = (long) (Math.floor(365.25 * (year + 4716))
+                + Math.floor(30.6001 * (month + 1)) + day + b - 1524);
+        if (jd < ITALY_JULIAN_DAY) {
+            jd -= (long) b;
+        }
+        return jd;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            q--;
+        }
+        return q;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+}
@@ -0,0 +1,60 @@
+package data_objects.drivers;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Reads the values of a column of one particular Ruby type (and JDBC type)
+ * from a ResultSet, and typecasts them to Ruby objects.
+ *
+ * Reading a value only calls the ResultSet's getters, and typecasting it only
+ * the runtime, so that the rows of a result can be read on another thread
+ * than the one they are typecast on.
+ *
+ * @see DriverDefinition#getValueReader(data_objects.RubyType, int)
+ */
+public abstract class ValueReader {
+
+    /**
+     * Read the value of the row the result set's cursor is on, with the
+     * getter of its type.
+     *
+     * @param rs
+     * @param col
+     * @return the value, or null for NULL
+     * @throws SQLException
+     * @throws IOException
+     */
+    public abstract Object read(ResultSet rs, int col) throws SQLException,
+            IOException;
+
+    /**
+     * Typecast a value read with read.
+     *
+     * @param runtime
+     * @param value the value, not null
+     * @return
+     */
+    public abstract IRubyObject typecast(Ruby runtime, Object value);
+
+    /**
+     * Read and typecast the value of the row the result set's cursor is on.
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @return the value, or nil for NULL
+     * @throws SQLException
+     * @throws IOException
+     */
+    public IRubyObject get(Ruby runtime, ResultSet rs, int col)
+            throws SQLException, IOException {
+        Object value = read(rs, col);
+        return (value == null) ? runtime.getNil() : typecast(runtime, value);
+    }
+
+}
@@ -0,0 +1,301 @@
+package data_objects.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The result of tokenizing a DataObjects SQL text once.
+ */
+public final class ParsedSql {
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+    private static final Map<String, ParsedSql> CACHE = Collections
+            .synchronizedMap(new LinkedHashMap<String, ParsedSql>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedSql> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    private final String sql;
+    private final int[] placeholders;
+    private final boolean ddl;
+    private final boolean returning;
+    private String fingerprint;
+
+    /**
+     * Parse a SQL text, or return the cached parse of an equal text.
+     *
+     * @param sql
+     * @return
+     */
+    public static ParsedSql parse(String sql) {
+        ParsedSql parsed = CACHE.get(sql);
+        if (parsed == null) {
+            parsed = new ParsedSql(sql);
+            CACHE.put(sql, parsed);
+        }
+        return parsed;
+    }
+
+    private ParsedSql(String sql) {
+        this.sql = sql;
+
+        int[] positions = new int[8];
+        int count = 0;
+        boolean first = true;
+        boolean isDdl = false;
+        boolean hasReturning = false;
+        int len = sql.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            switch (c) {
+            case '\'':
+            case '"':
+            case '`':
+                i = skipQuoted(sql, i, c);
+                first = false;
+                break;
+            case '-':
+                if (i + 1 < len && sql.charAt(i + 1) == '-') {
+                    int eol = sql.indexOf('\n', i);
+                    i = (eol == -1) ? len : eol;
+                } else {
+                    first = false;
+                }
+                break;
+            case '/':
+                if (i + 1 < len && sql.charAt(i + 1) == '*') {
+                    int end = sql.indexOf("*/", i + 2);
+                    i = (end == -1) ? len : end + 1;
+                } else {
+                    first = false;
+                }
+                break;
+            case '$':
+                if (i == 0 || !isIdentifierPart(sql.charAt(i - 1))) {
+                    i = skipDollarQuoted(sql, i);
+                }
+                first = false;
+                break;
+            case '?':
+                if (count == positions.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(positions, 0, grown, 0, count);
+                    positions = grown;
+                }
+                positions[count++] = i;
+                first = false;
+                break;
+            default:
+                if (Character.isWhitespace(c)) {
+                    break;
+                }
+                if (isIdentifierStart(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                    int end = i + 1;
+                    while (end < len && isIdentifierPart(sql.charAt(end))) {
+                        end++;
+                    }
+                    if (first) {
+                        isDdl = isKeyword(sql, i, end, "CREATE")
+                                || isKeyword(sql, i, end, "DROP");
+                    }
+                    if (!hasReturning) {
+                        hasReturning = isKeyword(sql, i, end, "RETURNING");
+                    }
+                    i = end - 1;
+                }
+                first = false;
+            }
+        }
+
+        this.placeholders = new int[count];
+        System.arraycopy(positions, 0, this.placeholders, 0, count);
+        this.ddl = isDdl;
+        this.returning = hasReturning;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getPlaceholderCount() {
+        return placeholders.length;
+    }
+
+    /**
+     * @param index zero-based index of the placeholder
+     * @return the offset of the placeholder within the SQL text
+     */
+    public int getPlaceholderPosition(int index) {
+        return placeholders[index];
+    }
+
+    /**
+     * Whether the statement starts with CREATE or DROP.
+     *
+     * @return
+     */
+    public boolean isDdl() {
+        return ddl;
+    }
+
+    /**
+     * Whether the statement contains a RETURNING clause.
+     *
+     * @return
+     */
+    public boolean hasReturning() {
+        return returning;
+    }
+
+    /**
+     * A normalized form of the statement, for aggregating statistics over
+     * statements that differ only in their literals: string and numeric
+     * literals become "?", comments are dropped, whitespace is collapsed, and
+     * lists of placeholders (e.g. "IN (?, ?, ?)") collapse to a single "?".
+     *
+     * @return
+     */
+    public String getFingerprint() {
+        String f = fingerprint;
+        if (f == null) {
+            f = fingerprint(sql);
+            fingerprint = f;
+        }
+        return f;
+    }
+
+    private static String fingerprint(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean space = false;
+        int len = sql.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            int end = i;
+            String token;
+            switch (c) {
+            case '\'':
+                i = skipQuoted(sql, i, c);
+                token = "?";
+                break;
+            case '"':
+            case '`':
+                i = skipQuoted(sql, i, c);
+                token = sql.substring(end, Math.min(i + 1, len));
+                break;
+            case '-':
+                if (i + 1 < len && sql.charAt(i + 1) == '-') {
+                    int eol = sql.indexOf('\n', i);
+                    i = (eol == -1) ? len : eol;
+                    space = true;
+                    continue;
+                }
+                token = "-";
+                break;
+            case '/':
+                if (i + 1 < len && sql.charAt(i + 1) == '*') {
+                    int close = sql.indexOf("*/", i + 2);
+                    i = (close == -1) ? len : close + 1;
+                    space = true;
+                    continue;
+                }
+                token = "/";
+                break;
+            case '$':
+                if (i == 0 || !isIdentifierPart(sql.charAt(i - 1))) {
+                    i = skipDollarQuoted(sql, i);
+                }
+                token = (i > end) ? "?" : "$";
+                break;
+            default:
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                boolean wordStart = i == 0 || !isIdentifierPart(sql.charAt(i - 1));
+                if (wordStart && (Character.isDigit(c) || isIdentifierStart(c))) {
+                    while (end + 1 < len && (isIdentifierPart(sql.charAt(end + 1))
+                            || (Character.isDigit(c) && sql.charAt(end + 1) == '.'))) {
+                        end++;
+                    }
+                    token = Character.isDigit(c) ? "?" : sql.substring(i, end + 1);
+                    i = end;
+                } else {
+                    token = String.valueOf(c);
+                }
+            }
+            if (space && out.length() > 0) {
+                out.append(' ');
+            }
+            space = false;
+            out.append(token);
+        }
+        return PLACEHOLDER_LIST.matcher(out).replaceAll("?");
+    }
+
+    /**
+     * @return the index of the closing quote, or the end of the text if the
+     * quote is unterminated
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int len = sql.length();
+        for (int i = start + 1; i < len; i++) {
+            if (sql.charAt(i) == quote) {
+                // a doubled quote is an escaped quote
+                if (i + 1 < len && sql.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Skip a PostgreSQL dollar-quoted string ($$...$$ or $tag$...$tag$).
+     *
+     * @return the index of the last character of the closing tag, or start if
+     * there is no dollar quote at start
+     */
+    private static int skipDollarQuoted(String sql, int start) {
+        int len = sql.length();
+        int tagEnd = start + 1;
+        if (tagEnd < len && isIdentifierStart(sql.charAt(tagEnd))) {
+            while (tagEnd < len && sql.charAt(tagEnd) != '$'
+                    && isIdentifierPart(sql.charAt(tagEnd))) {
+                tagEnd++;
+            }
+        }
+        if (tagEnd >= len || sql.charAt(tagEnd) != '$') {
+            return start;
+        }
+        String tag = sql.substring(start, tagEnd + 1);
+        int close = sql.indexOf(tag, tagEnd + 1);
+        return (close == -1) ? len : close + tag.length() - 1;
+    }
+
+    private static boolean isKeyword(String sql, int start, int end, String keyword) {
+        return end - start == keyword.length()
+                && sql.regionMatches(true, start, keyword, 0, keyword.length());
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+}
@@ -0,0 +1,193 @@
+package data_objects.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Nanosecond timings of the phases of query execution, per SQL fingerprint.
+ */
+public final class QueryTimings {
+
+    /**
+     * The phases of query execution that are timed.
+     */
+    public enum Phase {
+        /** binding parameters to the PreparedStatement */
+        BIND,
+        /** executing the statement */
+        EXECUTE,
+        /** moving the cursor to the next row (ResultSet#next) */
+        FETCH,
+        /** converting a row's column values to Ruby objects */
+        CONVERT
+    }
+
+    // statements beyond this many distinct fingerprints are aggregated under
+    // OTHER_FINGERPRINT, so that dynamically built SQL can't grow the table
+    // without bound
+    private static final int MAX_FINGERPRINTS = 1000;
+
+    public static final String OTHER_FINGERPRINT = "(other)";
+
+    private final ConcurrentMap<String, Query> queries = new ConcurrentHashMap<String, Query>();
+
+    private volatile boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The timings of the statements with the given fingerprint.
+     *
+     * @param fingerprint
+     * @return
+     */
+    public Query get(String fingerprint) {
+        Query query = queries.get(fingerprint);
+        if (query == null) {
+            if (queries.size() >= MAX_FINGERPRINTS) {
+                fingerprint = OTHER_FINGERPRINT;
+            }
+            query = new Query();
+            Query existing = queries.putIfAbsent(fingerprint, query);
+            if (existing != null) {
+                query = existing;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * A consistent copy of the timings of each fingerprint.
+     *
+     * @return
+     */
+    public Map<String, Histogram[]> snapshot() {
+        Map<String, Histogram[]> snapshot = new LinkedHashMap<String, Histogram[]>();
+        for (Map.Entry<String, Query> entry : queries.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        queries.clear();
+    }
+
+    /**
+     * The timings of one SQL fingerprint: a histogram per phase.
+     */
+    public static final class Query {
+
+        private final Histogram[] phases = new Histogram[Phase.values().length];
+
+        private Query() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Histogram();
+            }
+        }
+
+        public void record(Phase phase, long nanos) {
+            phases[phase.ordinal()].record(nanos);
+        }
+
+        /**
+         * @return a copy of each phase's histogram, indexed by
+         *         {@link Phase#ordinal()}
+         */
+        public Histogram[] snapshot() {
+            Histogram[] copy = new Histogram[phases.length];
+            for (int i = 0; i < phases.length; i++) {
+                copy[i] = phases[i].copy();
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * A histogram of durations with power-of-two nanosecond buckets: bucket n
+     * counts the durations d with 2^(n-1) <= d < 2^n.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final long[] buckets;
+        private long count;
+        private long total;
+        private long min;
+        private long max;
+
+        private Histogram() {
+            this.buckets = new long[BUCKETS];
+        }
+
+        private Histogram(Histogram other) {
+            this.buckets = other.buckets.clone();
+            this.count = other.count;
+            this.total = other.total;
+            this.min = other.min;
+            this.max = other.max;
+        }
+
+        synchronized void record(long nanos) {
+            if (nanos < 0) {
+                // System.nanoTime() is not guaranteed to be monotonic everywhere
+                nanos = 0;
+            }
+            buckets[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos))]++;
+            if (count == 0 || nanos < min) {
+                min = nanos;
+            }
+            if (nanos > max) {
+                max = nanos;
+            }
+            count++;
+            total += nanos;
+        }
+
+        synchronized Histogram copy() {
+            return new Histogram(this);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public int getBucketCount() {
+            return BUCKETS;
+        }
+
+        /**
+         * @param bucket
+         * @return the exclusive upper bound of the bucket, in nanoseconds
+         */
+        public long getBucketLimit(int bucket) {
+            return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        public long getBucket(int bucket) {
+            return buckets[bucket];
+        }
+    }
+
+}
@@ -0,0 +1,353 @@
+package data_objects.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Writes the rows of a result set to a channel as CSV or JSON Lines.
+ */
+public final class ResultSetExporter {
+
+    /**
+     * The formats results can be exported in.
+     */
+    public enum Format {
+        /** RFC 4180 comma separated values, with a header row of field names */
+        CSV,
+        /** a JSON object per row, keyed by field name, on a line of its own */
+        JSONL
+    }
+
+    // how the values of a column are written
+    private static final int TEXT = 0;
+    private static final int NUMBER = 1;
+    private static final int BOOLEAN = 2;
+    private static final int BINARY = 3;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // rows are encoded and written once this many chars are buffered
+    private static final int FLUSH_THRESHOLD = 16 * 1024;
+    private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+
+    private final Format format;
+    private final WritableByteChannel out;
+    private final QueryTimings.Query queryTiming;
+
+    private final StringBuilder chars = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * @param format
+     * @param out
+     * @param queryTiming where to record fetch and conversion times, or null
+     */
+    public ResultSetExporter(Format format, WritableByteChannel out,
+            QueryTimings.Query queryTiming) {
+        this.format = format;
+        this.out = out;
+        this.queryTiming = queryTiming;
+    }
+
+    /**
+     * Write the remaining rows of the result set.
+     *
+     * @param rs
+     * @param columnCount the number of columns to write, which may be less
+     *        than the result set's column count
+     * @param maxRows the most rows to write, or 0 for no limit
+     * @return the number of rows written
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long export(ResultSet rs, int columnCount, int maxRows)
+            throws SQLException, IOException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int[] kinds = new int[columnCount];
+        String[] keys = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            kinds[i] = kind(metaData.getColumnType(i + 1));
+            String name = metaData.getColumnName(i + 1);
+            if (format == Format.CSV) {
+                if (i > 0) {
+                    chars.append(',');
+                }
+                appendCsvString(name);
+            } else {
+                // the '"name":' prefix of each of the column's values
+                chars.setLength(0);
+                chars.append(i == 0 ? '{' : ',');
+                appendJsonString(name);
+                chars.append(':');
+                keys[i] = chars.toString();
+                chars.setLength(0);
+            }
+        }
+        if (format == Format.CSV) {
+            chars.append("\r\n");
+        }
+
+        long rows = 0;
+        while (maxRows == 0 || rows < maxRows) {
+            boolean hasNext;
+            long convertStart = 0;
+            if (queryTiming != null) {
+                long fetchStart = System.nanoTime();
+                hasNext = rs.next();
+                convertStart = System.nanoTime();
+                queryTiming.record(QueryTimings.Phase.FETCH, convertStart - fetchStart);
+            } else {
+                hasNext = rs.next();
+            }
+            if (!hasNext) {
+                break;
+            }
+            if (format == Format.CSV) {
+                appendCsvRow(rs, kinds);
+            } else {
+                appendJsonRow(rs, kinds, keys);
+            }
+            if (chars.length() >= FLUSH_THRESHOLD) {
+                write(false);
+            }
+            if (queryTiming != null) {
+                queryTiming.record(QueryTimings.Phase.CONVERT, System.nanoTime() - convertStart);
+            }
+            rows++;
+        }
+        write(true);
+        return rows;
+    }
+
+    private void appendCsvRow(ResultSet rs, int[] kinds) throws SQLException {
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0) {
+                chars.append(',');
+            }
+            int col = i + 1;
+            switch (kinds[i]) {
+            case BOOLEAN:
+                boolean bool = rs.getBoolean(col);
+                if (!rs.wasNull()) {
+                    chars.append(bool);
+                }
+                break;
+            case BINARY:
+                byte[] data = rs.getBytes(col);
+                if (data != null) {
+                    appendHex(data);
+                }
+                break;
+            case NUMBER:
+                String number = rs.getString(col);
+                if (number != null) {
+                    chars.append(number);
+                }
+                break;
+            default:
+                String str = rs.getString(col);
+                if (str != null) {
+                    appendCsvString(str);
+                }
+            }
+        }
+        chars.append("\r\n");
+    }
+
+    private void appendJsonRow(ResultSet rs, int[] kinds, String[] keys)
+            throws SQLException {
+        for (int i = 0; i < kinds.length; i++) {
+            chars.append(keys[i]);
+            int col = i + 1;
+            switch (kinds[i]) {
+            case BOOLEAN:
+                boolean bool = rs.getBoolean(col);
+                if (rs.wasNull()) {
+                    chars.append("null");
+                } else {
+                    chars.append(bool);
+                }
+                break;
+            case BINARY:
+                byte[] data = rs.getBytes(col);
+                if (data == null) {
+                    chars.append("null");
+                } else {
+                    chars.append('"');
+                    appendHex(data);
+                    chars.append('"');
+                }
+                break;
+            case NUMBER:
+                String number = rs.getString(col);
+                if (number == null) {
+                    chars.append("null");
+                } else if (isJsonNumber(number)) {
+                    chars.append(number);
+                } else {
+                    // e.g. NaN or Infinity
+                    appendJsonString(number);
+                }
+                break;
+            default:
+                String str = rs.getString(col);
+                if (str == null) {
+                    chars.append("null");
+                } else {
+                    appendJsonString(str);
+                }
+            }
+        }
+        if (kinds.length == 0) {
+            chars.append('{');
+        }
+        chars.append("}\n");
+    }
+
+    private void appendCsvString(String str) {
+        boolean quote = str.length() == 0;
+        for (int i = 0; i < str.length() && !quote; i++) {
+            char c = str.charAt(i);
+            quote = (c == ',' || c == '"' || c == '\r' || c == '\n');
+        }
+        if (!quote) {
+            chars.append(str);
+            return;
+        }
+        chars.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"') {
+                chars.append('"');
+            }
+            chars.append(c);
+        }
+        chars.append('"');
+    }
+
+    private void appendJsonString(String str) {
+        chars.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+            case '"':
+                chars.append("\\\"");
+                break;
+            case '\\':
+                chars.append("\\\\");
+                break;
+            case '\n':
+                chars.append("\\n");
+                break;
+            case '\r':
+                chars.append("\\r");
+                break;
+            case '\t':
+                chars.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    chars.append("\\u00").append(HEX_DIGITS[c >> 4])
+                            .append(HEX_DIGITS[c & 0xf]);
+                } else {
+                    chars.append(c);
+                }
+            }
+        }
+        chars.append('"');
+    }
+
+    private void appendHex(byte[] data) {
+        for (byte b : data) {
+            chars.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+    }
+
+    /**
+     * Encode the buffered chars and write them to the channel.
+     *
+     * @param endOfInput whether no more chars follow
+     */
+    private void write(boolean endOfInput) throws IOException {
+        CharBuffer in = CharBuffer.wrap(chars);
+        while (true) {
+            CoderResult result = encoder.encode(in, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            encoder.reset();
+        }
+        // whole rows are encoded, so no chars are left over
+        chars.setLength(0);
+        drain();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private static boolean isJsonNumber(String number) {
+        int start = number.startsWith("-") ? 1 : 0;
+        if (number.length() == start || !Character.isDigit(number.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (!(Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                    || c == '+' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int kind(int jdbcType) {
+        switch (jdbcType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return NUMBER;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return BOOLEAN;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            return BINARY;
+        default:
+            return TEXT;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package data_objects.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of PreparedStatements.
+ */
+public final class StatementCache {
+
+    private final int capacity;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    private boolean closed;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity maximum number of idle statements to keep; 0 disables
+     * caching altogether
+     */
+    public StatementCache(int capacity) {
+        this.capacity = capacity;
+        // access-ordered, so that the eldest entry is the least recently used
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.capacity) {
+                    evictions++;
+                    JDBCUtil.close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Check out the idle statement cached under key, if there is one. The
+     * statement is removed from the cache until it is released again.
+     *
+     * @param key
+     * @return a PreparedStatement, or null on a cache miss
+     */
+    public synchronized PreparedStatement take(Key key) {
+        if (closed || capacity == 0) {
+            return null;
+        }
+        PreparedStatement ps = statements.remove(key);
+        if (ps == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ps;
+    }
+
+    /**
+     * Check out the idle statement cached under key, or prepare a new one on
+     * conn if there is none.
+     *
+     * @param conn
+     * @param key
+     * @return a PreparedStatement
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(Connection conn, Key key)
+            throws SQLException {
+        PreparedStatement ps = take(key);
+        return (ps != null) ? ps : key.prepare(conn);
+    }
+
+    /**
+     * Hand a statement back to the cache once it is no longer in use. If the
+     * cache is disabled or closed, or an equivalent statement is already
+     * cached, the statement is closed instead.
+     *
+     * @param key
+     * @param ps
+     */
+    public synchronized void release(Key key, PreparedStatement ps) {
+        if (ps == null) {
+            return;
+        }
+        if (closed || capacity == 0 || statements.containsKey(key)) {
+            JDBCUtil.close(ps);
+            return;
+        }
+        try {
+            ps.clearParameters();
+            ps.clearWarnings();
+            if (ps.getMaxRows() != 0) {
+                ps.setMaxRows(0);
+            }
+        } catch (SQLException sqle) {
+            // the statement is no longer usable, so don't keep it around
+            JDBCUtil.close(ps);
+            return;
+        }
+        statements.put(key, ps);
+    }
+
+    /**
+     * Close all cached statements. Statements released after this point are
+     * closed immediately.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext();) {
+            JDBCUtil.close(it.next());
+            it.remove();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Cache key: the rewritten SQL text together with the flags the statement
+     * is prepared with. Each constructor corresponds to one of the
+     * java.sql.Connection#prepareStatement variants.
+     */
+    public static final class Key {
+
+        private static final int UNSPECIFIED = 0;
+
+        private final String sql;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+        private final int autoGeneratedKeys;
+        private final int hash;
+
+        public Key(String sql) {
+            this(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED);
+        }
+
+        public Key(String sql, int autoGeneratedKeys) {
+            this(sql, UNSPECIFIED, UNSPECIFIED, autoGeneratedKeys);
+        }
+
+        public Key(String sql, int resultSetType, int resultSetConcurrency) {
+            this(sql, resultSetType, resultSetConcurrency, UNSPECIFIED);
+        }
+
+        private Key(String sql, int resultSetType, int resultSetConcurrency,
+                int autoGeneratedKeys) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            int h = sql.hashCode();
+            h = 31 * h + resultSetType;
+            h = 31 * h + resultSetConcurrency;
+            h = 31 * h + autoGeneratedKeys;
+            this.hash = h;
+        }
+
+        public PreparedStatement prepare(Connection conn) throws SQLException {
+            if (resultSetType != UNSPECIFIED) {
+                return conn.prepareStatement(sql, resultSetType,
+                        resultSetConcurrency);
+            } else if (autoGeneratedKeys != UNSPECIFIED) {
+                return conn.prepareStatement(sql, autoGeneratedKeys);
+            } else {
+                return conn.prepareStatement(sql);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return resultSetType == other.resultSetType
+                    && resultSetConcurrency == other.resultSetConcurrency
+                    && autoGeneratedKeys == other.autoGeneratedKeys
+                    && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+package data_objects.util;
+
+import java.math.BigDecimal;
+import java.util.TimeZone;
+
+/**
+ * Parses dates, timestamps and numbers from the character data of databases
+ * that store them as text.
+ */
+public final class TextParser {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    // the powers of ten a double holds exactly
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        double power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private TextParser() {
+    }
+
+    /**
+     * The fields of a parsed date or timestamp.
+     */
+    public static final class Temporal {
+
+        public int year;
+        public int month;
+        public int day;
+        public int hour;
+        public int minute;
+        public int second;
+        public int millis;
+        // whether an offset was given, and if so, in seconds east of UTC
+        public boolean hasOffset;
+        public int offsetSeconds;
+
+        /**
+         * @param zone the time zone of a timestamp without an offset
+         * @return the milliseconds since the epoch, taking the fields as
+         *         proleptic Gregorian
+         */
+        public long toEpochMillis(TimeZone zone) {
+            long localMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                    + ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+            if (hasOffset) {
+                return localMillis - offsetSeconds * 1000L;
+            }
+            // the offset of the local time, found from an instant close to it
+            int offset = zone.getOffset(localMillis - zone.getOffset(localMillis));
+            return localMillis - offset;
+        }
+    }
+
+    /**
+     * Parse a date, timestamp or time of day. A time of day on its own is
+     * taken to be on 1970-01-01.
+     *
+     * @param text
+     * @return
+     * @throws IllegalArgumentException if the text is not in any of the
+     *         forms read
+     */
+    public static Temporal parseTemporal(CharSequence text) {
+        Temporal t = new Temporal();
+        int length = text.length();
+        int pos = 0;
+        if (length > 2 && text.charAt(2) == ':') {
+            // a time of day on its own
+            t.year = 1970;
+            t.month = 1;
+            t.day = 1;
+        } else {
+            boolean negative = false;
+            if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+                negative = text.charAt(pos) == '-';
+                pos++;
+            }
+            int end = digits(text, pos, 4, 9);
+            t.year = number(text, pos, end);
+            if (negative) {
+                t.year = -t.year;
+            }
+            pos = expect(text, end, '-');
+            end = digits(text, pos, 1, 2);
+            t.month = number(text, pos, end);
+            pos = expect(text, end, '-');
+            end = digits(text, pos, 1, 2);
+            t.day = number(text, pos, end);
+            pos = end;
+            if (t.month < 1 || t.month > 12 || t.day < 1
+                    || t.day > daysInMonth(t.year, t.month)) {
+                throw invalid(text);
+            }
+            if (pos == length) {
+                return t;
+            }
+            char separator = text.charAt(pos);
+            if (separator != 'T' && separator != 't' && separator != ' ') {
+                throw invalid(text);
+            }
+            pos++;
+        }
+
+        int end = digits(text, pos, 1, 2);
+        t.hour = number(text, pos, end);
+        pos = expect(text, end, ':');
+        end = digits(text, pos, 2, 2);
+        t.minute = number(text, pos, end);
+        pos = end;
+        if (pos < length && text.charAt(pos) == ':') {
+            end = digits(text, pos + 1, 2, 2);
+            t.second = number(text, pos + 1, end);
+            pos = end;
+            if (pos < length && (text.charAt(pos) == '.' || text.charAt(pos) == ',')) {
+                end = digits(text, pos + 1, 1, Integer.MAX_VALUE);
+                // to the millisecond, dropping any further digits
+                int millis = 0;
+                for (int i = 0; i < 3; i++) {
+                    int index = pos + 1 + i;
+                    millis = millis * 10 + ((index < end) ? text.charAt(index) - '0' : 0);
+                }
+                t.millis = millis;
+                pos = end;
+            }
+        }
+        if (t.hour > 24 || t.minute > 59 || t.second > 60) {
+            throw invalid(text);
+        }
+
+        if (pos < length && text.charAt(pos) == ' ') {
+            pos++;
+        }
+        if (pos == length) {
+            return t;
+        }
+        char sign = text.charAt(pos);
+        if (sign == 'Z' || sign == 'z') {
+            pos++;
+        } else if (sign == '+' || sign == '-') {
+            end = digits(text, pos + 1, 2, 2);
+            int offset = number(text, pos + 1, end) * 3600;
+            pos = end;
+            if (pos < length && text.charAt(pos) == ':') {
+                pos++;
+            }
+            if (pos < length) {
+                end = digits(text, pos, 2, 2);
+                offset += number(text, pos, end) * 60;
+                pos = end;
+            }
+            t.offsetSeconds = (sign == '-') ? -offset : offset;
+        } else {
+            throw invalid(text);
+        }
+        if (pos != length) {
+            throw invalid(text);
+        }
+        t.hasOffset = true;
+        return t;
+    }
+
+    /**
+     * Parse a decimal number as a double, like Double.parseDouble. Numbers
+     * with at most 15 significant digits and a small exponent are worked out
+     * exactly here, which is most of those stored.
+     *
+     * @param text
+     * @return
+     * @throws NumberFormatException
+     */
+    public static double parseDouble(String text) {
+        int length = text.length();
+        int pos = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; pos < length; pos++) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (mantissa == 0 && c == '0') {
+                    // a leading zero
+                } else if (++significantDigits > 15) {
+                    return Double.parseDouble(text);
+                } else {
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (point) {
+                    scale++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            return Double.parseDouble(text);
+        }
+        int exponent = -scale;
+        if (pos < length) {
+            char c = text.charAt(pos);
+            if (c != 'e' && c != 'E') {
+                return Double.parseDouble(text);
+            }
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+                negativeExponent = text.charAt(pos) == '-';
+                pos++;
+            }
+            int end = pos;
+            int e = 0;
+            while (end < length && end - pos < 4 && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+                e = e * 10 + (text.charAt(end++) - '0');
+            }
+            if (end == pos || end != length) {
+                return Double.parseDouble(text);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            // both operands are exact, so the result is correctly rounded
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(text);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a decimal number as a BigDecimal, like new BigDecimal(String).
+     * Plain numbers whose unscaled value fits in a long are built without
+     * copying the text.
+     *
+     * @param text
+     * @return
+     * @throws NumberFormatException
+     */
+    public static BigDecimal parseBigDecimal(String text) {
+        int length = text.length();
+        if (length == 0 || length > 18) {
+            return new BigDecimal(text);
+        }
+        int pos = 0;
+        boolean negative = false;
+        if (text.charAt(0) == '-' || text.charAt(0) == '+') {
+            negative = text.charAt(0) == '-';
+            pos++;
+        }
+        long unscaled = 0;
+        int scale = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; pos < length; pos++) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                unscaled = unscaled * 10 + (c - '0');
+                if (point) {
+                    scale++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return new BigDecimal(text);
+            }
+        }
+        if (!digits) {
+            return new BigDecimal(text);
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    /**
+     * The days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    static long daysFromCivil(long year, int month, int day) {
+        year -= (month <= 2) ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * @return the index after the run of digits at pos, which must be
+     *         between min and max digits long
+     */
+    private static int digits(CharSequence text, int pos, int min, int max) {
+        int end = pos;
+        int length = text.length();
+        while (end < length && end - pos < max && text.charAt(end) >= '0'
+                && text.charAt(end) <= '9') {
+            end++;
+        }
+        if (end - pos < min) {
+            throw invalid(text);
+        }
+        return end;
+    }
+
+    private static int number(CharSequence text, int start, int end) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            n = n * 10 + (text.charAt(i) - '0');
+        }
+        return n;
+    }
+
+    private static int expect(CharSequence text, int pos, char c) {
+        if (pos >= text.length() || text.charAt(pos) != c) {
+            throw invalid(text);
+        }
+        return pos + 1;
+    }
+
+    private static IllegalArgumentException invalid(CharSequence text) {
+        return new IllegalArgumentException("Invalid date or time: " + text);
+    }
+
+}
@@ -1,8 +1,7 @@
 package do_mysql;
 
-import java.io.IOException;
-import java.sql.Statement;
 import java.sql.PreparedStatement;
+import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
@@ -11,8 +10,10 @@ import java.util.Properties;
 import org.jruby.Ruby;
 import org.jruby.runtime.builtin.IRubyObject;
 
+import data_objects.PrimitiveType;
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.ValueReader;
 import java.sql.DriverManager;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,33 +29,46 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
     }
 
     @Override
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        switch (type) {
-        case FIXNUM:
-            switch (rs.getMetaData().getColumnType(col)) {
-            case Types.TINYINT:
-                boolean bool = rs.getBoolean(col);
-                return runtime.newBoolean(bool);
-            }
-        default:
-            return super.doGetTypecastResultSetValue(runtime, rs, col, type);
+    public ValueReader getValueReader(RubyType type, int jdbcType) {
+        if (type == RubyType.FIXNUM && jdbcType == Types.TINYINT) {
+            return TINYINT_READER;
         }
+        return super.getValueReader(type, jdbcType);
     }
 
+    /**
+     * Reads TINYINT values as true or false.
+     */
+    private static final ValueReader TINYINT_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return Boolean.valueOf(rs.getBoolean(col));
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return runtime.newBoolean(((Boolean) value).booleanValue());
+        }
+    };
+
     @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case NIL:
-            // XXX ps.getParameterMetaData().getParameterType(idx) produces
-            // com.mysql.jdbc.ResultSetMetaData:397:in `getField': java.lang.NullPointerException
-            // from com.mysql.jdbc.ResultSetMetaData:275:in `getColumnType'
-            ps.setNull(idx, Types.NULL);
-            break;
+    public PrimitiveType getPrimitiveType(RubyType type, int jdbcType) {
+        if (type == RubyType.FIXNUM && jdbcType == Types.TINYINT) {
+            // cast to true or false, see getValueReader
+            return null;
+        }
+        return super.getPrimitiveType(type, jdbcType);
+    }
+
+    @Override
+    public boolean readsStringBytes(int jdbcType) {
+        // Connector/J hands over the bytes of text columns as the server sent
+        // them, in the connection's character set
+        switch (jdbcType) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+            return true;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            return false;
         }
     }
 
@@ -70,6 +84,15 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
         return true;
     }
 
+    @Override
+    public void setStreamingFetchSize(PreparedStatement ps, int fetchSize)
+            throws SQLException {
+        // Connector/J reads the whole result set into memory for any other
+        // fetch size (unless useCursorFetch is set), and only streams it row
+        // by row for this one
+        ps.setFetchSize(Integer.MIN_VALUE);
+    }
+
     @Override
     public boolean supportsConnectionEncodings()
     {
@@ -85,6 +108,9 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
         props.put("sessionVariables", "sql_auto_is_null=0,sql_mode='ANSI,NO_BACKSLASH_ESCAPES,NO_DIR_IN_CREATE,NO_ENGINE_SUBSTITUTION,NO_UNSIGNED_SUBTRACTION,TRADITIONAL'");
         // by default enable auto reconnection
         props.put("autoReconnect","true");
+        // let Connector/J send batched INSERTs (Command#execute_batch) as
+        // multi-row INSERT statements
+        props.put("rewriteBatchedStatements", "true");
         return props;
     }
 
@@ -7,3 +7,28 @@ describe DataObjects::Mysql::Command do
   it_should_behave_like 'a Command'
   it_should_behave_like 'a Command with async'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Mysql::Command do
+    it_should_behave_like 'a Command with batches'
+  end
+
+  describe DataObjects::Mysql::Command do
+    it_should_behave_like 'a Command with columnar results'
+  end
+
+  describe DataObjects::Mysql::Command do
+    it_should_behave_like 'a Command with export'
+  end
+
+  describe DataObjects::Mysql::Command do
+    it_should_behave_like 'a Command with row limits'
+  end
+
+  describe DataObjects::Mysql::Command do
+    it_should_behave_like 'a Command with IO parameters'
+  end
+
+end
@@ -59,3 +59,16 @@ describe DataObjects::Mysql::Connection do
   end
 
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Mysql::Connection do
+    it_should_behave_like 'a Connection with a statement cache'
+  end
+
+  describe DataObjects::Mysql::Connection do
+    it_should_behave_like 'a Connection with query timings'
+  end
+
+end
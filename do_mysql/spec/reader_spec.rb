@@ -6,3 +6,28 @@ require 'data_objects/spec/reader_spec'
 describe DataObjects::Mysql::Reader do
   it_should_behave_like 'a Reader'
 end
+
+describe DataObjects::Mysql::Reader do
+  it_should_behave_like 'a Reader with batches'
+end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Mysql::Reader do
+    it_should_behave_like 'a Reader with a fetch size'
+  end
+
+  describe DataObjects::Mysql::Reader do
+    it_should_behave_like 'a Reader with lazy rows'
+  end
+
+  describe DataObjects::Mysql::Reader do
+    it_should_behave_like 'a Reader with prefetching'
+  end
+
+  describe DataObjects::Mysql::Reader do
+    it_should_behave_like 'a Reader with interned strings'
+  end
+
+end
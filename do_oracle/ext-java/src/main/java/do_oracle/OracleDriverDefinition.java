@@ -1,6 +1,5 @@
 package do_oracle;
 
-import java.io.IOException;
 import java.lang.reflect.Field;
 
 import java.sql.Connection;
@@ -20,12 +19,12 @@ import java.util.regex.Pattern;
 
 import org.jruby.Ruby;
 import org.jruby.runtime.builtin.IRubyObject;
-import org.jruby.RubyString;
 
 import org.joda.time.DateTime;
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.ValueReader;
 import data_objects.util.JDBCUtil;
 
 public class OracleDriverDefinition extends AbstractDriverDefinition {
@@ -70,50 +69,33 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
     }
 
     @Override
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
+    public ValueReader getValueReader(RubyType type, int jdbcType) {
         switch (type) {
         case TIME:
-            switch (rs.getMetaData().getColumnType(col)) {
+            switch (jdbcType) {
             case OracleTypes.DATE:
             case OracleTypes.TIMESTAMP:
             case OracleTypes.TIMESTAMPTZ:
             case OracleTypes.TIMESTAMPLTZ:
-                java.sql.Timestamp dt = rs.getTimestamp(col);
-                if (dt == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(dt));
+                return TIMESTAMP_TIME_READER;
             default:
-                String str = rs.getString(col);
-                if (str == null) {
-                    return runtime.getNil();
-                }
-                RubyString return_str = RubyString.newUnicodeString(runtime,
-                        str);
-                return_str.setTaint(true);
-                return return_str;
+                return super.getValueReader(RubyType.STRING, jdbcType);
             }
         default:
-            return super.doGetTypecastResultSetValue(runtime, rs, col, type);
+            return super.getValueReader(type, jdbcType);
         }
     }
 
-    @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case NIL:
-            // XXX ps.getParameterMetaData().getParameterType(idx) produces
-            // com.mysql.jdbc.ResultSetMetaData:397:in `getField': java.lang.NullPointerException
-            // from com.mysql.jdbc.ResultSetMetaData:275:in `getColumnType'
-            ps.setNull(idx, Types.NULL);
-            break;
-        default:
-            super.setPreparedStatementParam(ps, arg, idx);
+    private static final ValueReader TIMESTAMP_TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getTimestamp(col);
         }
-    }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return prepareRubyTimeFromSqlTime(runtime,
+                    sqlTimestampToDateTime((java.sql.Timestamp) value));
+        }
+    };
 
     @Override
     public boolean registerPreparedStatementReturnParam(String sqlText, PreparedStatement ps, int idx) throws SQLException {
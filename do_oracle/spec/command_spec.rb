@@ -51,3 +51,28 @@ describe DataObjects::Oracle::Command do
 
   end
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Oracle::Command do
+    it_should_behave_like 'a Command with batches'
+  end
+
+  describe DataObjects::Oracle::Command do
+    it_should_behave_like 'a Command with columnar results'
+  end
+
+  describe DataObjects::Oracle::Command do
+    it_should_behave_like 'a Command with export'
+  end
+
+  describe DataObjects::Oracle::Command do
+    it_should_behave_like 'a Command with row limits'
+  end
+
+  describe DataObjects::Oracle::Command do
+    it_should_behave_like 'a Command with IO parameters'
+  end
+
+end
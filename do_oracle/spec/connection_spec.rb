@@ -17,3 +17,16 @@ describe DataObjects::Oracle::Connection do
   it_should_behave_like 'a Connection'
   it_should_behave_like 'a Connection with authentication support'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Oracle::Connection do
+    it_should_behave_like 'a Connection with a statement cache'
+  end
+
+  describe DataObjects::Oracle::Connection do
+    it_should_behave_like 'a Connection with query timings'
+  end
+
+end
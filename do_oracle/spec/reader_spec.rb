@@ -6,3 +6,32 @@ require 'data_objects/spec/reader_spec'
 describe DataObjects::Oracle::Reader do
   it_should_behave_like 'a Reader'
 end
+
+describe DataObjects::Oracle::Reader do
+  it_should_behave_like 'a Reader with batches'
+end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Oracle::Reader do
+    it_should_behave_like 'a Reader with a fetch size'
+  end
+
+  describe DataObjects::Oracle::Reader do
+    it_should_behave_like 'a Reader with lazy rows'
+  end
+
+  describe DataObjects::Oracle::Reader do
+    it_should_behave_like 'a Reader with prefetching'
+  end
+
+  describe DataObjects::Oracle::Reader do
+    it_should_behave_like 'a Reader with interned strings'
+  end
+
+  describe DataObjects::Oracle::Reader do
+    it_should_behave_like 'a Reader with streamed LOBs'
+  end
+
+end
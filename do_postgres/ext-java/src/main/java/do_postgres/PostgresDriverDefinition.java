@@ -1,6 +1,8 @@
 package do_postgres;
 
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.ParameterBinder;
+import data_objects.drivers.ParameterBinders;
 import data_objects.RubyType;
 
 import java.util.Properties;
@@ -9,6 +11,7 @@ import java.sql.SQLException;
 import java.sql.Types;
 
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
 import org.jruby.RubyString;
 
 public class PostgresDriverDefinition extends AbstractDriverDefinition {
@@ -33,36 +36,65 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
     }
 
     @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        int jdbcType;
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case STRING:
-            jdbcType = ps.getParameterMetaData().getParameterType(idx);
-            switch (jdbcType) {
-            case Types.INTEGER:
-                // conversion for '.execute_reader("2")'
-                ps.setInt(idx, Integer.valueOf(arg.toString()));
-                break;
-            default:
-                ps.setString(idx, arg.toString());
+    public boolean requiresTransactionForStreaming() {
+        // the driver ignores the fetch size, and reads the whole result set,
+        // unless autocommit is off
+        return true;
+    }
+
+    @Override
+    protected void registerParameterBinders(ParameterBinders binders) {
+        super.registerParameterBinders(binders);
+        binders.register(RubyType.STRING.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                int jdbcType = ps.getParameterMetaData().getParameterType(idx);
+                switch (jdbcType) {
+                case Types.INTEGER:
+                    // conversion for '.execute_reader("2")'
+                    ps.setInt(idx, Integer.valueOf(arg.toString()));
+                    break;
+                default:
+                    ps.setString(idx, arg.toString());
+                }
             }
-            break;
-        case BYTE_ARRAY:
-            jdbcType = ps.getParameterMetaData().getParameterType(idx);
-            switch (jdbcType) {
-            case Types.BINARY:
-                ps.setBytes(idx, ((RubyString) arg).getBytes());
-                break;
-            default:
-                //XXX Postgres doesn't typecast bytea type to integer,decimal etc
-                //so it's done manually by the driver
-                ps.setObject(idx,arg.asJavaString(),jdbcType);
+        });
+        binders.register(RubyType.BYTE_ARRAY.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                // like quote_byte_array of the native driver: an untyped
+                // literal in bytea escape format, which the server reads as
+                // bytea, or as e.g. an integer where the parameter is one
+                ps.setObject(idx, escapeBytea(((RubyString) arg).getByteList()),
+                        Types.OTHER);
+            }
+        });
+    }
+
+    /**
+     * Write bytes in the escape format of bytea input: printable ASCII as
+     * is, except for backslashes, which are doubled, and any other byte as
+     * a backslash and three octal digits.
+     *
+     * @param bytes
+     * @return
+     */
+    private static String escapeBytea(ByteList bytes) {
+        StringBuilder sb = new StringBuilder(bytes.realSize + 16);
+        for (int i = 0; i < bytes.realSize; i++) {
+            int b = bytes.bytes[bytes.begin + i] & 0xff;
+            if (b == '\\') {
+                sb.append("\\\\");
+            } else if (b >= 0x20 && b < 0x7f) {
+                sb.append((char) b);
+            } else {
+                sb.append('\\')
+                  .append((char) ('0' + (b >> 6)))
+                  .append((char) ('0' + ((b >> 3) & 7)))
+                  .append((char) ('0' + (b & 7)));
             }
-            break;
-        default:
-            super.setPreparedStatementParam(ps, arg, idx);
         }
+        return sb.toString();
     }
 
 }
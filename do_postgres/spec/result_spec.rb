@@ -83,4 +83,36 @@ describe DataObjects::Postgres::Result do
 
   end
 
+  describe 'when using a lowercase returning' do
+
+    before :each do
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @result    = @connection.create_command("insert into users (name) values (?) returning id").execute_non_query("monkey")
+    end
+
+    after :each do
+      @connection.close
+    end
+
+    describe 'affected_rows' do
+
+      it 'should return the number of created rows' do
+        @result.affected_rows.should == 1
+      end
+
+    end
+
+    describe 'insert_id' do
+
+      it 'should return the generated key value' do
+        reader = @connection.create_command("SELECT currval('users_id_seq')").execute_reader
+        reader.next!
+        @result.insert_id.should == reader.values.first
+        reader.close
+      end
+
+    end
+
+  end
+
 end
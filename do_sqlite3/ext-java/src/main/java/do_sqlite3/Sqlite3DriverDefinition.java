@@ -2,32 +2,30 @@ package do_sqlite3;
 
 import java.lang.reflect.Field;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.io.InputStream;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 import org.jruby.Ruby;
 import org.jruby.RubyBigDecimal;
-import org.jruby.RubyBignum;
-import org.jruby.RubyNumeric;
 import org.jruby.RubyFloat;
 import org.jruby.RubyTime;
 import org.jruby.runtime.builtin.IRubyObject;
 
+import data_objects.PrimitiveType;
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.ParameterBinder;
+import data_objects.drivers.ParameterBinders;
+import data_objects.drivers.TemporalConverter;
+import data_objects.drivers.ValueReader;
+import data_objects.util.TextParser;
 
 public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
 
-    private final static DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZ");
-    private final static DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.date();// yyyy-MM-dd
-
     public final static String URI_SCHEME = "sqlite3";
     public final static String JDBC_URI_SCHEME = "sqlite";
     public final static String RUBY_MODULE_NAME = "Sqlite3";
@@ -36,111 +34,202 @@ public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
         super(URI_SCHEME, JDBC_URI_SCHEME, RUBY_MODULE_NAME);
     }
 
-    public static DateTime toDate(String date) {
-        return DATE_FORMAT.parseDateTime(date.replaceFirst("T.*", ""));
-    }
-
-    public static DateTime toTimestamp(String stamp) {
-        DateTimeFormatter formatter = stamp.contains("T") ? TIMESTAMP_FORMAT : DATE_FORMAT;// "yyyy-MM-dd'T'HH:mm:ssZ"
-                                                                                           // :
-                                                                                           // "yyyy-MM-dd");
-        return formatter.parseDateTime(stamp);
+    @Override
+    public PrimitiveType getPrimitiveType(RubyType type, int jdbcType) {
+        if (type == RubyType.FLOAT) {
+            // parsed from the String value, see getValueReader
+            return null;
+        }
+        return super.getPrimitiveType(type, jdbcType);
     }
 
-    public static DateTime toTime(String time) {
-        DateTimeFormatter formatter = time.contains(" ") ? DATE_TIME_FORMAT : (time.contains("T") ? TIMESTAMP_FORMAT : DATE_FORMAT);
-        return formatter.parseDateTime(time);
+    @Override
+    public boolean readsStringBytes(int jdbcType) {
+        // the driver reports TEXT values as VARCHAR, and reads their bytes
+        // as SQLite stores them, in UTF-8
+        return jdbcType == Types.VARCHAR;
     }
 
     @Override
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        // System.out.println(rs.getMetaData().getColumnTypeName(col) + " = " + type.toString());
+    public ValueReader getValueReader(RubyType type, int jdbcType) {
+        // System.out.println(type.toString() + " for JDBC type " + jdbcType);
         switch (type) {
         case DATE:
-            String date = rs.getString(col);
-            if (date == null) {
-                return runtime.getNil();
-            }
-            return prepareRubyDateFromSqlDate(runtime, toDate(date));
+            return DATE_READER;
         case DATE_TIME:
-            String dt = rs.getString(col);
-            if (dt == null) {
-                return runtime.getNil();
-            }
-            return prepareRubyDateTimeFromSqlTimestamp(runtime, toTimestamp(dt));
+            return DATE_TIME_READER;
         case TIME:
-            String time = rs.getString(col);
-            if (time == null) {
-                return runtime.getNil();
-            }
-            return prepareRubyTimeFromSqlTime(runtime, toTimestamp(time));
+            return TIME_READER;
         case FIXNUM:
         case INTEGER:
         case BIGNUM:
+            return INTEGER_READER;
+        case FLOAT:
+            return FLOAT_READER;
+        case BIG_DECIMAL:
+            return BIG_DECIMAL_READER;
+        default:
+            return super.getValueReader(type, jdbcType);
+        }
+    }
+
+    private static final ValueReader DATE_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            // the date of a timestamp, regardless of its time and offset
+            TextParser.Temporal d = TextParser.parseTemporal((String) value);
+            return TemporalConverter.forRuntime(runtime).newDate(d.year,
+                    d.month, d.day);
+        }
+    };
+
+    private static final ValueReader DATE_TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            TemporalConverter converter = TemporalConverter.forRuntime(runtime);
+            return converter.newDateTime(TextParser.parseTemporal(
+                    (String) value).toEpochMillis(converter.getTimeZone()));
+        }
+    };
+
+    private static final ValueReader TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            TemporalConverter timeConverter = TemporalConverter.forRuntime(runtime);
+            long millis = TextParser.parseTemporal((String) value)
+                    .toEpochMillis(timeConverter.getTimeZone());
+            if (millis + 3600000 == 0) {
+                return runtime.getNil();
+            }
+            return timeConverter.newTime(millis);
+        }
+    };
+
+    private static final ValueReader INTEGER_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
             try {
                 // in most cases integers will fit into long type
                 // and therefore should be faster to use getLong
                 long lng = rs.getLong(col);
-                if (rs.wasNull()) {
-                    return runtime.getNil();
-                }
-                return RubyNumeric.int2fix(runtime, lng);
+                return rs.wasNull() ? null : Long.valueOf(lng);
             } catch (SQLException sqle) {
                 // as SQLite JDBC driver has not implemented getBigDecimal we need to get as String
                 String ivalue = rs.getString(col);
                 if (ivalue == null) {
-                    return runtime.getNil();
+                    return null;
                 }
-                // will return either Fixnum or Bignum
-                return RubyBignum.bignorm(runtime, (new BigDecimal(ivalue)).toBigInteger());
+                return TextParser.parseBigDecimal(ivalue);
             }
-        case FLOAT:
-            String fvalue = rs.getString(col);
-            if (fvalue == null) {
-                return runtime.getNil();
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return typecastInteger(runtime, value);
+        }
+    };
+
+    private static final ValueReader FLOAT_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return new RubyFloat(runtime, TextParser.parseDouble((String) value));
+        }
+    };
+
+    private static final ValueReader BIG_DECIMAL_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            return new RubyBigDecimal(runtime, TextParser
+                    .parseBigDecimal((String) value));
+        }
+    };
+
+    @Override
+    protected void registerParameterBinders(ParameterBinders binders) {
+        super.registerParameterBinders(binders);
+        binders.register(RubyType.BIG_DECIMAL.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, ((RubyBigDecimal) arg).toString());
             }
-            return new RubyFloat(runtime, new BigDecimal(fvalue).doubleValue());
-        case BIG_DECIMAL:
-            String dvalue = rs.getString(col);
-            if (dvalue == null) {
-                return runtime.getNil();
+        });
+        binders.register(RubyType.TRUE_CLASS.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, "t");
             }
-            return new RubyBigDecimal(runtime, new BigDecimal(dvalue));
-        default:
-            return super.doGetTypecastResultSetValue(runtime, rs, col, type);
-        }
+        });
+        binders.register(RubyType.FALSE_CLASS.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, "f");
+            }
+        });
+        ParameterBinder toStringBinder = new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                ps.setString(idx, arg.toString());
+            }
+        };
+        binders.register(RubyType.DATE_TIME.getRubyName(), toStringBinder);
+        binders.register(RubyType.DATE.getRubyName(), toStringBinder);
+        binders.register(RubyType.TIME.getRubyName(), new ParameterBinder() {
+            public void bind(PreparedStatement ps, IRubyObject arg, int idx)
+                    throws SQLException {
+                String time = ((RubyTime) arg).getDateTime().toString("yyyy-MM-dd'T'HH:mm:ssZZ");
+                ps.setString(idx, time);
+            }
+        });
     }
 
     @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case BIG_DECIMAL:
-            ps.setString(idx, ((RubyBigDecimal) arg).toString());
-            break;
-        case TRUE_CLASS:
-            ps.setString(idx, "t");
-            break;
-        case FALSE_CLASS:
-            ps.setString(idx, "f");
-            break;
-        case DATE_TIME:
-            String datetime = arg.toString();
-            ps.setString(idx, datetime);
-            break;
-        case TIME:
-            String time = ((RubyTime) arg).getDateTime().toString("yyyy-MM-dd'T'HH:mm:ssZZ");
-            ps.setString(idx, time);
-            break;
-        case DATE:
-            String date = arg.toString();
-            ps.setString(idx, date);
-            break;
-        default:
-            super.setPreparedStatementParam(ps, arg, idx);
+    protected void setCharacterStreamParam(PreparedStatement ps, int idx,
+            java.io.Reader reader) throws SQLException {
+        // the SQLite JDBC driver doesn't implement setCharacterStream
+        ps.setString(idx, readString(reader));
+    }
+
+    @Override
+    protected void setBinaryStreamParam(PreparedStatement ps, int idx,
+            InputStream stream, int length) throws SQLException {
+        // the SQLite JDBC driver doesn't implement setBinaryStream
+        byte[] bytes = new byte[length];
+        int n = 0;
+        try {
+            while (n < length) {
+                int read = stream.read(bytes, n, length - n);
+                if (read == -1) {
+                    break;
+                }
+                n += read;
+            }
+        } catch (IOException ioe) {
+            throw new SQLException("Cannot read from binary stream: " + ioe.getMessage());
+        }
+        if (n < length) {
+            byte[] read = new byte[n];
+            System.arraycopy(bytes, 0, read, 0, n);
+            bytes = read;
         }
+        ps.setBytes(idx, bytes);
+    }
+
+    @Override
+    public boolean supportsJdbcLobs() {
+        return false;
     }
 
     @Override
@@ -6,3 +6,28 @@ require 'data_objects/spec/command_spec'
 describe DataObjects::Sqlite3::Command do
   it_should_behave_like 'a Command'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Sqlite3::Command do
+    it_should_behave_like 'a Command with batches'
+  end
+
+  describe DataObjects::Sqlite3::Command do
+    it_should_behave_like 'a Command with columnar results'
+  end
+
+  describe DataObjects::Sqlite3::Command do
+    it_should_behave_like 'a Command with export'
+  end
+
+  describe DataObjects::Sqlite3::Command do
+    it_should_behave_like 'a Command with row limits'
+  end
+
+  describe DataObjects::Sqlite3::Command do
+    it_should_behave_like 'a Command with IO parameters'
+  end
+
+end
@@ -16,3 +16,16 @@ describe DataObjects::Sqlite3::Connection do
 
   it_should_behave_like 'a Connection'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Sqlite3::Connection do
+    it_should_behave_like 'a Connection with a statement cache'
+  end
+
+  describe DataObjects::Sqlite3::Connection do
+    it_should_behave_like 'a Connection with query timings'
+  end
+
+end
@@ -17,3 +17,12 @@ end
 describe DataObjects::Sqlite3::Result do
   it_should_behave_like 'a Result which returns inserted keys'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::Sqlite3::Result do
+    it_should_behave_like 'a Result which returns all inserted keys'
+  end
+
+end
@@ -1,11 +1,9 @@
 package do_sqlserver;
 
-import java.io.IOException;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.Statement;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
@@ -14,19 +12,20 @@ import java.util.Properties;
 
 import org.jruby.Ruby;
 import org.jruby.runtime.builtin.IRubyObject;
-import org.jruby.RubyString;
 
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.TemporalConverter;
+import data_objects.drivers.ValueReader;
 import data_objects.util.JDBCUtil;
+import data_objects.util.TextParser;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.sql.DriverManager;
 import java.sql.Timestamp;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.joda.time.DateTime;
 
 public class SqlServerDriverDefinition extends AbstractDriverDefinition {
 
@@ -72,41 +71,35 @@ public class SqlServerDriverDefinition extends AbstractDriverDefinition {
     }
 
     @Override
-    protected IRubyObject doGetTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
+    public ValueReader getValueReader(RubyType type, int jdbcType) {
         switch (type) {
             case DATE_TIME:
-                String dt = null;
-                // SQL Server appears to give us an unparsable
-                try {
-                    dt = rs.getString(col);
-                } catch (SQLException sqle) {
-                }
-                if (dt == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyDateTimeFromSqlTimestamp(runtime,
-                        new DateTime(dt));
+                return DATE_TIME_READER;
             default:
-                return super.doGetTypecastResultSetValue(runtime, rs, col, type);
+                return super.getValueReader(type, jdbcType);
         }
     }
 
-    @Override
-    public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.getRubyType(arg.getType().getName())) {
-        case NIL:
-            // XXX ps.getParameterMetaData().getParameterType(idx) produces
-            // com.mysql.jdbc.ResultSetMetaData:397:in `getField': java.lang.NullPointerException
-            // from com.mysql.jdbc.ResultSetMetaData:275:in `getColumnType'
-            ps.setNull(idx, Types.NULL);
-            break;
-        default:
-            super.setPreparedStatementParam(ps, arg, idx);
+    private static final ValueReader DATE_TIME_READER = new ValueReader() {
+        public Object read(ResultSet rs, int col) {
+            // SQL Server appears to give us an unparsable
+            try {
+                return rs.getString(col);
+            } catch (SQLException sqle) {
+                return null;
+            }
         }
-    }
+
+        public IRubyObject typecast(Ruby runtime, Object value) {
+            TemporalConverter converter = TemporalConverter.forRuntime(runtime);
+            long millis = TextParser.parseTemporal((String) value).toEpochMillis(
+                    converter.getTimeZone());
+            if (millis == 0) {
+                return runtime.getNil();
+            }
+            return converter.newDateTime(millis);
+        }
+    };
 
     @Override
     public boolean supportsJdbcGeneratedKeys() {
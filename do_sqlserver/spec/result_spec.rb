@@ -14,3 +14,12 @@ end
 describe DataObjects::SqlServer::Result do
   it_should_behave_like 'a Result which returns inserted keys'
 end
+
+# implemented by the JDBC drivers
+if JRUBY
+
+  describe DataObjects::SqlServer::Result do
+    it_should_behave_like 'a Result which returns all inserted keys'
+  end
+
+end